@@ -1,635 +1,7374 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
 
 // тут класс заказа
 class Order {
-    private final int id;
-    private final int cookTime;
+    // не final: в режиме пула один объект обслуживает много заказов по очереди
+    private int id;
+    private int cookTime;
     private volatile boolean isReady = false;
-    private final long startTime;
-    private final String waiterName; // какой официант взял заказ
-    private final Object deliveryLock = new Object(); // лок для доставки
+    private long startTime;
+    private String waiterName; // какой официант взял заказ
+
+    // отметки этапов в наносекундах (в виртуальном времени - виртуальные)
+    private long createdAt;
+    private long pickedUpAt;     // официант забрал у клиента
+    private long kitchenStartAt; // повар начал готовить
+    private long cookedAt;       // повар закончил
+    private long deliveredAt;    // официант отнес клиенту
+    private int shard;           // на какую кухню отправили (если кухонь несколько)
+    private int step;            // на каком шаге рецепта (кухня со станциями)
+    private long stepQueuedAt;   // когда шаг стал можно начинать
 
     public Order(int id, int cookTime, String waiterName) {
+        this(id, cookTime, waiterName, System.currentTimeMillis());
+        this.createdAt = System.nanoTime();
+    }
+
+    // для виртуального времени время создания задаем сами
+    public Order(int id, int cookTime, String waiterName, long startTime) {
         this.id = id;
         this.cookTime = cookTime;
-        this.startTime = System.currentTimeMillis();
+        this.startTime = startTime;
         this.waiterName = waiterName;
+        this.createdAt = TimeUnit.MILLISECONDS.toNanos(startTime);
+    }
+
+    // заказ из пула начинает жизнь заново под новым id
+    void reset(int id, int cookTime) {
+        this.id = id;
+        this.cookTime = cookTime;
+        this.waiterName = null;
+        this.startTime = System.currentTimeMillis();
+        this.createdAt = System.nanoTime();
+        pickedUpAt = 0;
+        kitchenStartAt = 0;
+        cookedAt = 0;
+        deliveredAt = 0;
+        shard = 0;
+        step = 0;
+        stepQueuedAt = 0;
+        isReady = false;
     }
 
+    // официант берет заказ себе (без копии заказа)
+    public void assignWaiter(String waiterName) { this.waiterName = waiterName; }
+
+    // кухня перегружена - готовим упрощенное блюдо
+    public void degrade(int cookTime) { this.cookTime = cookTime; }
+
     public int getId() { return id; }
     public int getCookTime() { return cookTime; }
     public boolean isReady() { return isReady; }
     public void setReady() { isReady = true; }
     public String getWaiterName() { return waiterName; }
-    public Object getDeliveryLock() { return deliveryLock; }
+    public long getStartTime() { return startTime; }
+
+    public long getCreatedAt() { return createdAt; }
+    public long getPickedUpAt() { return pickedUpAt; }
+    public long getKitchenStartAt() { return kitchenStartAt; }
+    public long getCookedAt() { return cookedAt; }
+    public long getDeliveredAt() { return deliveredAt; }
+
+    public int getShard() { return shard; }
+    public void assignShard(int shard) { this.shard = shard; }
+
+    public int getStep() { return step; }
+    public long getStepQueuedAt() { return stepQueuedAt; }
+    public void toStep(int step, long nanos) {
+        this.step = step;
+        this.stepQueuedAt = nanos;
+    }
+
+    public void markCreated(long nanos) { createdAt = nanos; }
+    public void markPickedUp(long nanos) { pickedUpAt = nanos; }
+    public void markKitchenStart(long nanos) { kitchenStartAt = nanos; }
+    public void markCooked(long nanos) { cookedAt = nanos; }
+    public void markDelivered(long nanos) { deliveredAt = nanos; }
 }
 
-// здесь у нас генератор ID заказов
+// здесь у нас генератор ID заказов (свой у каждой симуляции, чтобы их можно было запускать параллельно)
 class OrderIdGenerator {
-    private static final AtomicInteger counter = new AtomicInteger(1);
+    private final AtomicInteger counter = new AtomicInteger(1);
 
-    public static int generateId() {
+    public int generateId() {
         return counter.getAndIncrement();
     }
 
-    public static int getTotal() {
+    public int getTotal() {
         return counter.get() - 1;
     }
 
-    public static void reset() {
+    public void reset() {
         counter.set(1);
     }
 }
 
-// клиенты
-class CustomerGenerator implements Runnable {
-    private final BlockingQueue<Order> orderQueue; // очередь для новых заказов
-    private volatile boolean running = true;
-    private final Statistics stats;
+// реестр заказов в работе: разбит на полосы по id, общей блокировки нет
+class OrderRegistry {
+    private static final Order REMOVED = new Order(0, 0, null, 0); // метка удаленного в таблице
+    // ячейки после удаления не пустеют, так что без предела поиск отсутствующего id со временем
+    // проходил бы всю таблицу; заказ, которому не нашлось места за MAX_PROBE шагов, идет в полосы
+    private static final int MAX_PROBE = 16;
 
-    public CustomerGenerator(BlockingQueue<Order> orderQueue, Statistics stats) {
-        this.orderQueue = orderQueue;
-        this.stats = stats;
-    }
+    private final ConcurrentHashMap<Integer, Order>[] stripes;
+    private final int mask;
 
-    public void stop() {
-        running = false;
+    // режим без выделений: таблица с открытой адресацией (null - только полосы)
+    // ячейка бывает пустой только до первой записи, потом - заказ или REMOVED
+    private final AtomicReferenceArray<Order> table;
+    private final int tableMask;
+    private final AtomicInteger tableSize = new AtomicInteger();
+    private final int probes;
+
+    public OrderRegistry(int concurrency) {
+        this(concurrency, 0);
     }
 
-    @Override
-    public void run() {
-        System.out.println("[Клиенты] Начали приходить...");
+    // capacity > 0 - столько заказов в работе помещается в таблицу без Integer и узлов,
+    // если больше - лишние уходят в полосы
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public OrderRegistry(int concurrency, int capacity) {
+        if (capacity > 0) {
+            int length = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1; // заполнена не больше чем наполовину
+            table = new AtomicReferenceArray<>(length);
+            tableMask = length - 1;
+        } else {
+            table = null;
+            tableMask = 0;
+        }
+        probes = Math.min(MAX_PROBE, tableMask + 1);
 
-        while (running && !Thread.currentThread().isInterrupted()) {
-            try {
-                // тут периодически генерируем новый заказ
-                Order order = generateOrder();
-                stats.recordOrderCreated(orderQueue.size());
+        // число полос - степень двойки, не меньше числа официантов
+        int count = Integer.highestOneBit(Math.max(4, concurrency) - 1) << 1;
+        stripes = new ConcurrentHashMap[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ConcurrentHashMap<>();
+        }
+        mask = count - 1;
+    }
 
-                // кладем заказ в очередь для официантов
-                orderQueue.put(order);
+    private ConcurrentHashMap<Integer, Order> stripe(int orderId) {
+        // перемешиваем биты, чтобы соседние id не попадали в одну полосу подряд
+        int h = orderId * 0x9E3779B9;
+        return stripes[(h ^ (h >>> 16)) & mask];
+    }
 
-                System.out.printf("[%tH:%tM:%tS] Клиент создал заказ #%d (%d сек)\n",
-                        new Date(), new Date(), new Date(), order.getId(), order.getCookTime());
+    public void register(Order order) {
+        if (table != null) {
+            int start = order.getId() * 0x9E3779B9;
+            for (int i = 0; i < probes; i++) {
+                int index = (start + i) & tableMask;
+                Order current = table.get(index);
+                if ((current == null || current == REMOVED) && table.compareAndSet(index, current, order)) {
+                    tableSize.incrementAndGet();
+                    return;
+                }
+            }
+        }
+        stripe(order.getId()).put(order.getId(), order);
+    }
 
-                // случайная задержка между появлением клиентов
-                Thread.sleep(ThreadLocalRandom.current().nextInt(1000, 3000));
+    public Order get(int orderId) {
+        int index = find(orderId);
+        return index >= 0 ? table.get(index) : stripe(orderId).get(orderId);
+    }
 
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
+    public Order remove(int orderId) {
+        int index = find(orderId);
+        if (index >= 0) {
+            Order order = table.get(index);
+            if (order != REMOVED && order.getId() == orderId && table.compareAndSet(index, order, REMOVED)) {
+                tableSize.decrementAndGet();
+                return order;
             }
         }
-        System.out.println("[Клиенты] Перестали приходить");
+        return stripe(orderId).remove(orderId);
     }
 
-    private Order generateOrder() {
-        int orderId = OrderIdGenerator.generateId();
-        int cookTime = ThreadLocalRandom.current().nextInt(2, 7);
-        return new Order(orderId, cookTime, null);
+    // ячейка таблицы с этим заказом, -1 - в таблице его нет
+    private int find(int orderId) {
+        if (table == null) {
+            return -1;
+        }
+        int start = orderId * 0x9E3779B9;
+        for (int i = 0; i < probes; i++) {
+            int index = (start + i) & tableMask;
+            Order current = table.get(index);
+            if (current == null) {
+                return -1;
+            }
+            if (current != REMOVED && current.getId() == orderId) {
+                return index;
+            }
+        }
+        return -1;
     }
-}
 
-// пункт со статистикой
-class Statistics {
-    private final AtomicInteger ordersCreated = new AtomicInteger(0);
-    private final AtomicInteger ordersCompleted = new AtomicInteger(0);
-    private final AtomicInteger maxQueueSize = new AtomicInteger(0);
-    private long startTime;
-    private long endTime;
+    // id всех заказов в работе (для отчета об остановке, когда все уже стоят)
+    public List<Integer> ids() {
+        List<Integer> ids = new ArrayList<>();
+        if (table != null) {
+            for (int i = 0; i <= tableMask; i++) {
+                Order order = table.get(i);
+                if (order != null && order != REMOVED) {
+                    ids.add(order.getId());
+                }
+            }
+        }
+        for (ConcurrentHashMap<Integer, Order> stripe : stripes) {
+            ids.addAll(stripe.keySet());
+        }
+        return ids;
+    }
 
-    public void start() {
-        startTime = System.currentTimeMillis();
+    public int size() {
+        int size = tableSize.get();
+        for (ConcurrentHashMap<Integer, Order> stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
     }
+}
 
-    public void stop() {
-        endTime = System.currentTimeMillis();
+// пул заказов для режима без выделений памяти: все объекты создаются заранее,
+// доставленный (или брошенный) заказ возвращается и достается следующему клиенту
+class OrderPool {
+    private final BlockingQueue<Order> free;
+    private final int capacity;
+    private final LongAdder misses = new LongAdder(); // пул был пуст - пришлось создать новый
+
+    public OrderPool(int capacity) {
+        this.capacity = capacity;
+        free = new MpmcRingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            free.offer(new Order(0, 0, null, 0));
+        }
     }
 
-    public void recordOrderCreated(int queueSize) {
-        ordersCreated.incrementAndGet();
-        if (queueSize > maxQueueSize.get()) {
-            maxQueueSize.set(queueSize);
+    public Order acquire(int id, int cookTime) {
+        Order order = free.poll();
+        if (order == null) {
+            misses.increment();
+            return new Order(id, cookTime, null);
         }
+        order.reset(id, cookTime);
+        return order;
     }
 
-    public void recordOrderCompleted() {
-        ordersCompleted.incrementAndGet();
+    // заказ больше нигде не лежит; созданные сверх пула просто достанутся сборщику мусора
+    public void release(Order order) {
+        free.offer(order);
     }
 
-    public void printStats(String mode, int chefs, int waiters, int queue) {
-        long totalTime = (endTime - startTime) / 1000;
+    public int getCapacity() {
+        return capacity;
+    }
 
-        System.out.println("\n" + "=".repeat(50));
-        System.out.println("ИТОГОВАЯ СТАТИСТИКА");
-        System.out.println("=".repeat(50));
-        System.out.println("Режим: " + mode);
-        System.out.println("Параметры: Повара: " + chefs + ", Официанты: " + waiters + ", Очередь: " + queue);
-        System.out.printf("Время работы: %d сек\n", totalTime);
-        System.out.printf("Всего заказов создано: %d\n", ordersCreated.get());
-        System.out.printf("Заказов выполнено: %d\n", ordersCompleted.get());
-        System.out.printf("Не выполнено: %d\n", ordersCreated.get() - ordersCompleted.get());
-        System.out.printf("Максимальная очередь клиентов: %d\n", maxQueueSize.get());
+    public long getMisses() {
+        return misses.sum();
     }
 }
 
-// официанты
-class Waiter implements Runnable {
+// куда уходит время одного повара или официанта. пишет только его собственный поток,
+// читаем после того, как поток закончился; когда профилировщик выключен, профиля нет (null) и замеров тоже
+class StaffProfile {
+    static final int WORK = 0;    // готовит, принимает или разносит
+    static final int POLL = 1;    // ждет работу: poll/take с таймаутом на пустой очереди
+    static final int BLOCKED = 2; // есть что отдать, но некуда: put/offer на полную очередь
+
     private final String name;
-    private final BlockingQueue<Order> customerQueue; // очередь от клиентов
-    private final BlockingQueue<Order> kitchenQueue;  // очередь на кухню
-    private final Map<Integer, Order> activeOrders; // заказы в работе
-    private final Object lock;
-    private volatile boolean working = true;
-    private int ordersTaken = 0;
-    private int ordersDelivered = 0;
-    private final Statistics stats;
+    private final long[] nanos = new long[3];
+    private long startedAt;
+    private long stoppedAt;
+    // по данным JVM: сколько раз и сколько мс ждал входа в synchronized (-1 - неизвестно)
+    private long monitorWaits = -1;
+    private long monitorMillis = -1;
+    private ThreadInfo startInfo;
+    // учет включили мы - после прогона выключаем обратно; под локом класса, включают и выключают из разных потоков
+    private static boolean monitoringEnabledByUs;
 
-    public Waiter(String name, BlockingQueue<Order> customerQueue, BlockingQueue<Order> kitchenQueue,
-                  Map<Integer, Order> activeOrders, Object lock, Statistics stats) {
+    public StaffProfile(String name) {
         this.name = name;
-        this.customerQueue = customerQueue;
-        this.kitchenQueue = kitchenQueue;
-        this.activeOrders = activeOrders;
-        this.lock = lock;
-        this.stats = stats;
     }
 
-    public void stop() {
-        working = false;
+    // включить учет блокировок в JVM, false - эта JVM не умеет
+    public static synchronized boolean enableContentionMonitoring() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadContentionMonitoringSupported()) {
+            return false;
+        }
+        if (!threads.isThreadContentionMonitoringEnabled()) {
+            threads.setThreadContentionMonitoringEnabled(true);
+            monitoringEnabledByUs = true;
+        }
+        return true;
     }
 
-    public String getStats() {
-        return String.format("%s: принял %d, доставил %d", name, ordersTaken, ordersDelivered);
+    // вернуть как было до enableContentionMonitoring(): учет замедляет каждый вход в synchronized
+    public static synchronized void restoreContentionMonitoring() {
+        if (monitoringEnabledByUs) {
+            ManagementFactory.getThreadMXBean().setThreadContentionMonitoringEnabled(false);
+            monitoringEnabledByUs = false;
+        }
     }
 
-    @Override
-    public void run() {
-        System.out.println(name + " начал работу");
-
-        while (working && !Thread.currentThread().isInterrupted()) {
-            try {
-                // сначала принять заказ от клиента (из очереди клиентов)
-                acceptOrderFromCustomer();
+    // нулевой профиль - nanoTime не зовем вовсе
+    static long now(StaffProfile profile) {
+        return profile != null ? System.nanoTime() : 0;
+    }
 
-                // потом проверить готовые заказы и доставить
-                deliverReadyOrders();
+    static void add(StaffProfile profile, int kind, long since) {
+        if (profile != null) {
+            profile.nanos[kind] += System.nanoTime() - since;
+        }
+    }
 
-                // затем короткая пауза
-                Thread.sleep(100);
+    // в начале и в конце run(), в потоке самого работника (поток из пула мог работать и до нас)
+    public void begin() {
+        startedAt = System.nanoTime();
+        startInfo = ManagementFactory.getThreadMXBean().getThreadInfo(Thread.currentThread().getId());
+    }
 
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            }
+    public void end() {
+        stoppedAt = System.nanoTime();
+        ThreadInfo info = ManagementFactory.getThreadMXBean().getThreadInfo(Thread.currentThread().getId());
+        // у виртуальных потоков данных нет, -1 - учет блокировок выключен
+        if (startInfo != null && info != null && info.getBlockedTime() >= 0) {
+            monitorWaits = info.getBlockedCount() - startInfo.getBlockedCount();
+            monitorMillis = info.getBlockedTime() - startInfo.getBlockedTime();
         }
-        System.out.println(name + " закончил работу");
     }
 
-    private void acceptOrderFromCustomer() throws InterruptedException {
-        // здесь мы пытаемся взять заказ из очереди клиентов
-        Order order = customerQueue.poll(50, TimeUnit.MILLISECONDS);
+    public String getName() {
+        return name;
+    }
 
-        if (order != null) {
-            // создаем новый заказ с назначением этого официанта
-            Order assignedOrder = new Order(order.getId(), order.getCookTime(), this.name);
-            ordersTaken++;
+    public long getNanos(int kind) {
+        return nanos[kind];
+    }
+
+    public long getLifetimeNanos() {
+        return (stoppedAt != 0 ? stoppedAt : System.nanoTime()) - startedAt;
+    }
 
-            System.out.printf("[%tH:%tM:%tS] %s принял заказ #%d от клиента\n",
-                    new Date(), new Date(), new Date(), name, assignedOrder.getId());
+    public long getMonitorWaits() {
+        return monitorWaits;
+    }
 
-            // поместить заказ в очередь кухни
-            kitchenQueue.put(assignedOrder);
+    public long getMonitorMillis() {
+        return monitorMillis;
+    }
 
-            // добавить в активные заказы для отслеживания
-            synchronized (lock) {
-                activeOrders.put(assignedOrder.getId(), assignedOrder);
+    public double share(int kind) {
+        long lifetime = getLifetimeNanos();
+        return lifetime > 0 ? 100.0 * nanos[kind] / lifetime : 0;
+    }
+
+    // таблица по всем работникам и итог: кто ограничивает смену
+    public static void print(List<StaffProfile> chefs, List<StaffProfile> waiters) {
+        System.out.println("\nПРОФИЛЬ ПЕРСОНАЛА (% времени смены):");
+        System.out.printf("  %-14s %7s %9s %11s %8s %16s\n", "Работник", "работа", "ждет раб.",
+                "блокировка", "прочее", "synchronized");
+        List<StaffProfile> all = new ArrayList<>(chefs);
+        all.addAll(waiters);
+        for (StaffProfile profile : all) {
+            double work = profile.share(WORK);
+            double poll = profile.share(POLL);
+            double blocked = profile.share(BLOCKED);
+            System.out.printf("  %-14s %6.1f%% %8.1f%% %10.1f%% %7.1f%% %16s\n", profile.name, work, poll, blocked,
+                    Math.max(0, 100 - work - poll - blocked), profile.monitorWaits < 0 ? "-"
+                            : profile.monitorWaits + " раз, " + profile.monitorMillis + " мс");
+        }
+
+        System.out.println("\nКОНКУРЕНЦИЯ:");
+        long monitorWaits = 0;
+        long monitorMillis = 0;
+        StaffProfile worstMonitor = null;
+        for (StaffProfile profile : all) {
+            if (profile.monitorWaits < 0) continue;
+            monitorWaits += profile.monitorWaits;
+            monitorMillis += profile.monitorMillis;
+            if (worstMonitor == null || profile.monitorMillis > worstMonitor.monitorMillis) {
+                worstMonitor = profile;
             }
+        }
+        if (worstMonitor == null) {
+            System.out.println("  synchronized: нет данных (виртуальные потоки или JVM не считает блокировки)");
+        } else {
+            System.out.printf("  synchronized: ждали %d раз, всего %d мс%s\n", monitorWaits, monitorMillis,
+                    worstMonitor.monitorMillis > 0
+                            ? ", больше всех " + worstMonitor.name + " (" + worstMonitor.monitorMillis + " мс)" : "");
+        }
+        System.out.printf("  Официанты ждали места на кухне: %.0f мс\n", total(waiters, BLOCKED) / 1e6);
+        System.out.printf("  Повара ждали места у официантов: %.0f мс\n", total(chefs, BLOCKED) / 1e6);
 
-            System.out.printf("[%tH:%tM:%tS] %s отправил заказ #%d на кухню\n",
-                    new Date(), new Date(), new Date(), name, assignedOrder.getId());
+        double chefWork = average(chefs, WORK);
+        double waiterWork = average(waiters, WORK);
+        double blocked = Math.max(average(waiters, BLOCKED), average(chefs, BLOCKED));
+        String limit = chefWork >= waiterWork ? "повара" : "официанты";
+        double worst = Math.max(chefWork, waiterWork);
+        if (blocked > worst) {
+            limit = "ожидание места в очередях";
+            worst = blocked;
         }
+        System.out.printf("  Заняты в среднем: повара %.1f%%, официанты %.1f%% → ограничивают %s (%.1f%%)\n",
+                chefWork, waiterWork, limit, worst);
     }
 
-    private void deliverReadyOrders() {
-        synchronized (lock) {
-            // создаем копию ключей для безопасной итерации
-            List<Integer> orderIds = new ArrayList<>(activeOrders.keySet());
+    private static long total(List<StaffProfile> profiles, int kind) {
+        long sum = 0;
+        for (StaffProfile profile : profiles) sum += profile.nanos[kind];
+        return sum;
+    }
 
-            for (int orderId : orderIds) {
-                Order order = activeOrders.get(orderId);
-                if (order != null && order.isReady() && name.equals(order.getWaiterName())) {
-                    synchronized (order.getDeliveryLock()) {
-                        if (activeOrders.containsKey(orderId) && order.isReady()) {
-                            activeOrders.remove(orderId);
+    private static double average(List<StaffProfile> profiles, int kind) {
+        double sum = 0;
+        for (StaffProfile profile : profiles) sum += profile.share(kind);
+        return profiles.isEmpty() ? 0 : sum / profiles.size();
+    }
+}
 
-                            // доставляем заказ
-                            ordersDelivered++;
-                            stats.recordOrderCompleted();
+// сколько памяти выделили потоки между start и stop (HotSpot считает это для каждого потока)
+// потоки, которые успели завершиться до stop, не учитываются
+class AllocationCounter {
+    private final com.sun.management.ThreadMXBean threads; // null - JVM этого не умеет
+    private long[] startIds = new long[0];
+    private long[] startBytes = new long[0];
 
-                            System.out.printf("[%tH:%tM:%tS] %s доставил заказ #%d клиенту\n",
-                                    new Date(), new Date(), new Date(), name, order.getId());
-                        }
-                    }
-                }
-            }
+    public AllocationCounter() {
+        java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+        threads = bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+
+    public void start() {
+        if (threads == null) {
+            return;
+        }
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        // сортируем пары по id, чтобы потом искать двоичным поиском
+        Integer[] order = new Integer[ids.length];
+        for (int i = 0; i < ids.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingLong(i -> ids[i]));
+        startIds = new long[ids.length];
+        startBytes = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            startIds[i] = ids[order[i]];
+            startBytes[i] = bytes[order[i]];
+        }
+    }
+
+    // байт с момента start, -1 - посчитать нельзя
+    public long stop() {
+        if (threads == null) {
+            return -1;
         }
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        long total = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] < 0) continue; // поток уже завершился
+            int k = Arrays.binarySearch(startIds, ids[i]);
+            total += bytes[i] - (k >= 0 ? startBytes[k] : 0);
+        }
+        return total;
     }
 }
 
-// повора
-class Chef implements Runnable {
-    private final String name;
-    private final BlockingQueue<Order> kitchenQueue; // очередь с кухни
-    private final Map<Integer, Order> activeOrders;
-    private final Object lock;
-    private volatile boolean working = true;
-    private int ordersCooked = 0;
+// на каких потоках работает персонал
+enum ExecutionMode {
+    PLATFORM("платформенные"),
+    VIRTUAL("виртуальные");
 
-    public Chef(String name, BlockingQueue<Order> kitchenQueue,
-                Map<Integer, Order> activeOrders, Object lock) {
-        this.name = name;
-        this.kitchenQueue = kitchenQueue;
-        this.activeOrders = activeOrders;
-        this.lock = lock;
+    private final String title;
+
+    ExecutionMode(String title) {
+        this.title = title;
     }
 
-    public void stop() {
-        working = false;
+    public String getTitle() {
+        return title;
     }
 
-    public String getStats() {
-        return String.format("%s: приготовил %d", name, ordersCooked);
+    // виртуальные потоки есть только с Java 21, поэтому ищем их через reflection
+    public static boolean virtualThreadsSupported() {
+        return virtualThreadFactory() != null;
     }
 
-    @Override
-    public void run() {
-        System.out.println(name + " начал работу");
+    public ThreadFactory threadFactory() {
+        if (this == VIRTUAL) {
+            ThreadFactory factory = virtualThreadFactory();
+            if (factory != null) {
+                return factory;
+            }
+            System.out.println("Виртуальные потоки недоступны (нужна Java 21+), используем обычные");
+        }
+        return Executors.defaultThreadFactory();
+    }
 
-        while (working && !Thread.currentThread().isInterrupted()) {
-            try {
-                // берем заказ из очереди кухни
-                Order order = kitchenQueue.poll(200, TimeUnit.MILLISECONDS);
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
 
-                if (order != null) {
-                    cookOrder(order);
-                }
+// журнал событий: потоки только кладут событие в кольцевой буфер,
+// а печатает все один фоновый поток пачками (раньше каждый printf блокировал System.out)
+class EventLog {
+    enum Level {
+        OFF("без вывода"),
+        STAFF("только персонал"),
+        ALL("все события");
 
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            }
+        private final String title;
+
+        Level(String title) {
+            this.title = title;
+        }
+
+        public String getTitle() {
+            return title;
         }
-        System.out.println(name + " закончил работу");
     }
 
-    private void cookOrder(Order order) {
-        System.out.printf("[%tH:%tM:%tS] %s начал готовить заказ #%d (%d сек) для %s\n",
-                new Date(), new Date(), new Date(), name, order.getId(), order.getCookTime(),
-                order.getWaiterName() != null ? order.getWaiterName() : "неизвестного");
+    // типы событий
+    static final int CUSTOMERS_STARTED = 0;
+    static final int CUSTOMERS_STOPPED = 1;
+    static final int STAFF_STARTED = 2;
+    static final int STAFF_STOPPED = 3;
+    static final int ORDER_CREATED = 4;
+    static final int ORDER_ACCEPTED = 5;
+    static final int ORDER_SENT = 6;
+    static final int COOK_STARTED = 7;
+    static final int COOK_DONE = 8;
+    static final int ORDER_DELIVERED = 9;
+    static final int ORDER_REJECTED = 10;
+    static final int ORDER_TIMED_OUT = 11;
+    static final int ORDER_DEGRADED = 12;
+    static final int ORDER_LOST = 13;
 
-        try {
-            Thread.sleep(order.getCookTime() * 1000L);
-            ordersCooked++;
+    private static final int CAPACITY = 1 << 14;
+    private static final int MASK = CAPACITY - 1;
+    private static final int BATCH = 512;
+    private static final long FLUSH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
 
-            // помечаем заказ как готовый
-            order.setReady();
+    // слоты буфера создаются один раз, событие не создает новых объектов
+    private static final long[] times = new long[CAPACITY];
+    private static final int[] types = new int[CAPACITY];
+    private static final String[] actors = new String[CAPACITY];
+    private static final String[] others = new String[CAPACITY];
+    private static final int[] orderIds = new int[CAPACITY];
+    private static final int[] args = new int[CAPACITY];
+    // номер слота: == seq - слот свободен для seq, == seq + 1 - событие seq записано
+    private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
 
-            System.out.printf("[%tH:%tM:%tS] %s приготовил заказ #%d для %s\n",
-                    new Date(), new Date(), new Date(), name, order.getId(), order.getWaiterName());
+    private static final AtomicLong tail = new AtomicLong(); // следующий свободный номер
+    private static volatile long head; // сколько уже напечатано
+    private static volatile Level level = Level.ALL;
+    // новый файл для писателя: {null} - консоль; старый писатель закрывает сам, когда переключится
+    private static final AtomicReference<Writer[]> nextSink = new AtomicReference<>();
+    private static volatile String filePath;
+    private static final Thread writer = new Thread(EventLog::writeLoop, "EventLog-writer");
+    // getDefault() каждый раз отдает копию - берем один раз, нужен только писателю
+    private static final TimeZone zone = TimeZone.getDefault();
 
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            sequences.set(i, i);
         }
+        writer.setDaemon(true);
+        writer.start();
     }
-}
 
-// главный класс с меню (похожее делала и в прошлых лабах)
-public class RestaurantSystem {
-    private static final Scanner scanner = new Scanner(System.in);
+    private EventLog() {
+    }
 
-    // ддефолтные настройки (константы)
-    private static final int DEFAULT_CHEFS = 3;
-    private static final int DEFAULT_WAITERS = 3;
-    private static final int DEFAULT_QUEUE = 10;
+    public static Level getLevel() {
+        return level;
+    }
 
-    // текущие настройки (можно менять)
-    private static int chefCount = DEFAULT_CHEFS;
-    private static int waiterCount = DEFAULT_WAITERS;
-    private static int queueSize = DEFAULT_QUEUE;
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
 
-    public static void main(String[] args) {
-        System.out.println("Привет! Давайте запустим симуляцию вместе!");
-        while (true) {
-            showMainMenu();
-            int choice = getIntInput("Выберите режим: ", 1, 6);
+    public static String getFilePath() {
+        return filePath;
+    }
 
-            switch (choice) {
-                case 1:
-                    runSimulation("Быстрая симуляция", 15);
-                    break;
-                case 2:
-                    runSimulation("Средняя симуляция", 30);
-                    break;
-                case 3:
-                    runSimulation("Длительная симуляция", 60);
-                    break;
-                case 4:
-                    runOrderCountSimulation();
-                    break;
-                case 5:
-                    showSettingsMenu();
-                    break;
-                case 6:
-                    System.out.println("Выход из программы");
-                    scanner.close();
-                    return;
+    // null - вернуться к выводу в консоль. файл меняет сам писатель между пачками,
+    // иначе мы бы закрыли Writer, в который он как раз дописывает
+    public static void setFile(String path) throws IOException {
+        Writer[] change = {path == null ? null : Files.newBufferedWriter(Paths.get(path))};
+        flush();
+        nextSink.set(change);
+        long deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+        while (nextSink.get() == change && writer.isAlive() && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(100_000);
+        }
+        if (nextSink.compareAndSet(change, null)) {
+            // писатель так и не забрал - файл никому не нужен
+            if (change[0] != null) {
+                change[0].close();
             }
+            throw new IOException("журнал событий не отвечает");
+        }
+        filePath = path;
+    }
 
-            System.out.print("\n Пожалйста нажмите Enter для продолжения!");
-            scanner.nextLine();
+    public static void staff(int type, String actor) {
+        if (level != Level.OFF) {
+            append(type, actor, 0, 0, null);
         }
     }
 
-    private static void showMainMenu() {
-        System.out.println("\n" + "=".repeat(50));
-        System.out.println("           СИМУЛЯЦИЯ РЕСТОРАНА");
-        System.out.println("=".repeat(50));
-        System.out.println("Текущие параметры: Повара: " + chefCount +
-                ", Официанты: " + waiterCount + ", Очередь: " + queueSize);
-        System.out.println("\n1. Быстрая симуляция (15 секунд)");
-        System.out.println("2. Средняя симуляция (30 секунд)");
-        System.out.println("3. Длительная симуляция (60 секунд)");
-        System.out.println("4. Режим по количеству заказов");
-        System.out.println("5. НАСТРОЙКИ ПАРАМЕТРОВ");
-        System.out.println("6. Выход");
-        System.out.println();
+    public static void order(int type, String actor, int orderId, int arg, String other) {
+        if (level == Level.ALL) {
+            append(type, actor, orderId, arg, other);
+        }
     }
 
-    private static void showSettingsMenu() {
-        int oldChefCount = chefCount;
-        int oldWaiterCount = waiterCount;
-        int oldQueueSize = queueSize;
+    private static void append(int type, String actor, int orderId, int arg, String other) {
+        long seq = tail.getAndIncrement();
+        int slot = (int) (seq & MASK);
+
+        // буфер полный - ждем, пока писатель освободит слот; писателя нет - событие печатать некому
+        while (sequences.get(slot) != seq) {
+            if (!writer.isAlive()) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+        times[slot] = System.currentTimeMillis();
+        types[slot] = type;
+        actors[slot] = actor;
+        others[slot] = other;
+        orderIds[slot] = orderId;
+        args[slot] = arg;
+        sequences.set(slot, seq + 1); // теперь писатель может его забрать
+    }
+
+    // ждем, пока все накопленное будет напечатано (перед итоговой статистикой), но не дольше
+    // FLUSH_TIMEOUT_NANOS и не после смерти писателя; false - напечатали не все
+    public static boolean flush() {
+        long target = tail.get();
+        long deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+        while (head < target) {
+            if (!writer.isAlive() || System.nanoTime() >= deadline) {
+                return false;
+            }
+            LockSupport.parkNanos(100_000);
+        }
+        return true;
+    }
 
+    private static void writeLoop() {
+        StringBuilder out = new StringBuilder(BATCH * 64);
+        Writer file = null; // null - консоль, трогает только этот поток
         while (true) {
-            System.out.println("\n" + "=".repeat(50));
-            System.out.println("           НАСТРОЙКИ ПАРАМЕТРОВ");
-            System.out.println("=".repeat(50));
-            System.out.println("Текущие значения:");
-            System.out.println("1. Количество поваров: " + chefCount);
-            System.out.println("2. Количество официантов: " + waiterCount);
-            System.out.println("3. Размер очереди: " + queueSize);
-            System.out.println("\n4. Изменить количество поваров");
-            System.out.println("5. Изменить количество официантов");
-            System.out.println("6. Изменить размер очереди");
-            System.out.println("7. Сбросить к стандартным (" + DEFAULT_CHEFS + ", " +
-                    DEFAULT_WAITERS + ", " + DEFAULT_QUEUE + ")");
-            System.out.println("8. Сохранить и вернуться в меню");
-            System.out.println("9. Отменить изменения");
-            System.out.println();
-
-            int choice = getIntInput("Выберите пункт: ", 1, 9);
+            Writer[] change = nextSink.getAndSet(null);
+            if (change != null) {
+                close(file);
+                file = change[0];
+            }
 
-            switch (choice) {
-                case 1:
-                    System.out.println("Текущее количество поваров: " + chefCount);
-                    break;
-                case 2:
-                    System.out.println("Текущее количество официантов: " + waiterCount);
-                    break;
-                case 3:
-                    System.out.println("Текущий размер очереди: " + queueSize);
-                    break;
-                case 4:
-                    System.out.print("Введите новое количество поваров: ");
-                    chefCount = scanner.nextInt();
-                    scanner.nextLine();
-                    System.out.println("Количество поваров изменено на: " + chefCount);
-                    break;
-                case 5:
-                    System.out.print("Введите новое количество официантов: ");
-                    waiterCount = scanner.nextInt();
-                    scanner.nextLine();
-                    System.out.println("Количество официантов изменено на: " + waiterCount);
-                    break;
-                case 6:
-                    System.out.print("Введите новый размер очереди: ");
-                    queueSize = scanner.nextInt();
-                    scanner.nextLine();
-                    System.out.println("Размер очереди изменен на: " + queueSize);
-                    break;
-                case 7:
-                    chefCount = DEFAULT_CHEFS;
-                    waiterCount = DEFAULT_WAITERS;
-                    queueSize = DEFAULT_QUEUE;
-                    System.out.println("\nНастройки сброшены к стандартным:");
-                    System.out.println("Повара: " + chefCount + ", Официанты: " + waiterCount +
-                            ", Очередь: " + queueSize);
+            long next = head;
+            int count = 0;
+            while (count < BATCH) {
+                int slot = (int) (next & MASK);
+                if (sequences.get(slot) != next + 1) {
                     break;
-                case 8:
-                    System.out.println("\nНастройки сохранены!");
-                    return;
-                case 9:
-                    chefCount = oldChefCount;
-                    waiterCount = oldWaiterCount;
-                    queueSize = oldQueueSize;
-                    System.out.println("\nИзменения отменены!");
-                    return;
+                }
+                format(out, slot);
+                actors[slot] = null;
+                others[slot] = null;
+                sequences.set(slot, next + CAPACITY); // слот свободен на следующем круге
+                next++;
+                count++;
+            }
+
+            if (count == 0) {
+                LockSupport.parkNanos(1_000_000);
+                continue;
             }
+            write(out, file);
+            out.setLength(0);
+            head = next;
         }
     }
 
-    private static void runSimulation(String mode, int durationSeconds) {
-        System.out.println("\n" + "=".repeat(50));
-        System.out.println("ЗАПУСК: " + mode);
-        System.out.println("Параметры: Повара: " + chefCount + ", Официанты: " + waiterCount + ", Очередь: " + queueSize);
-        System.out.println("Длительность: " + durationSeconds + " секунд");
-        System.out.println("=".repeat(50));
+    private static void close(Writer file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            System.out.println("Ошибка закрытия журнала: " + e.getMessage());
+        }
+    }
 
-        Statistics stats = new Statistics();
-        stats.start();
+    private static void write(StringBuilder out, Writer file) {
+        if (file == null) {
+            System.out.append(out);
+            System.out.flush();
+            return;
+        }
+        try {
+            file.append(out);
+            file.flush();
+        } catch (IOException e) {
+            System.out.println("Ошибка записи журнала: " + e.getMessage());
+        }
+    }
 
-        RestaurantSimulation sim = new RestaurantSimulation(stats, chefCount, waiterCount, queueSize);
-        sim.start();
+    private static void format(StringBuilder out, int slot) {
+        String actor = actors[slot];
+        switch (types[slot]) {
+            case CUSTOMERS_STARTED:
+                out.append("[Клиенты] Начали приходить...\n");
+                return;
+            case CUSTOMERS_STOPPED:
+                out.append("[Клиенты] Перестали приходить\n");
+                return;
+            case STAFF_STARTED:
+                out.append(actor).append(" начал работу\n");
+                return;
+            case STAFF_STOPPED:
+                out.append(actor).append(" закончил работу\n");
+                return;
+        }
 
-        try {
-            Thread.sleep(durationSeconds * 1000L);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        appendTime(out, times[slot]);
+        int orderId = orderIds[slot];
+        switch (types[slot]) {
+            case ORDER_CREATED:
+                out.append("Клиент создал заказ #").append(orderId)
+                        .append(" (").append(args[slot]).append(" сек)");
+                break;
+            case ORDER_ACCEPTED:
+                out.append(actor).append(" принял заказ #").append(orderId).append(" от клиента");
+                break;
+            case ORDER_SENT:
+                out.append(actor).append(" отправил заказ #").append(orderId).append(" на кухню");
+                break;
+            case COOK_STARTED:
+                out.append(actor).append(" начал готовить заказ #").append(orderId)
+                        .append(" (").append(args[slot]).append(" сек) для ")
+                        .append(others[slot] != null ? others[slot] : "неизвестного");
+                break;
+            case COOK_DONE:
+                out.append(actor).append(" приготовил заказ #").append(orderId)
+                        .append(" для ").append(others[slot]);
+                break;
+            case ORDER_DELIVERED:
+                out.append(actor).append(" доставил заказ #").append(orderId).append(" клиенту");
+                break;
+            case ORDER_REJECTED:
+                out.append(actor != null ? actor : "Клиенты").append(": отказ по заказу #").append(orderId)
+                        .append(actor != null ? ", кухня перегружена" : ", нет мест");
+                break;
+            case ORDER_TIMED_OUT:
+                out.append("Клиент ушел, не дождавшись заказа #").append(orderId);
+                break;
+            case ORDER_DEGRADED:
+                out.append(actor).append(" упростил заказ #").append(orderId)
+                        .append(" до ").append(args[slot]).append(" сек, кухня перегружена");
+                break;
+            case ORDER_LOST:
+                out.append(actor).append(": заказ #").append(orderId).append(" готов, но ")
+                        .append(others[slot]).append(" уже не работает - заказ потерян");
+                break;
         }
+        out.append('\n');
+    }
 
-        sim.stop();
-        stats.stop();
-        stats.printStats(mode, chefCount, waiterCount, queueSize);
-        sim.printPersonnelStats();
+    // [ЧЧ:ММ:СС] без Date и форматтеров
+    private static void appendTime(StringBuilder out, long millis) {
+        long local = millis + zone.getOffset(millis);
+        int seconds = (int) ((local / 1000) % 86400);
+        out.append('[');
+        appendTwoDigits(out, seconds / 3600);
+        out.append(':');
+        appendTwoDigits(out, seconds / 60 % 60);
+        out.append(':');
+        appendTwoDigits(out, seconds % 60);
+        out.append("] ");
     }
 
-    private static void runOrderCountSimulation() {
-        System.out.print("Введите количество заказов: ");
-        int orderCount = scanner.nextInt();
-        scanner.nextLine();
+    private static void appendTwoDigits(StringBuilder out, int value) {
+        if (value < 10) out.append('0');
+        out.append(value);
+    }
+}
 
-        System.out.println("\n" + "=".repeat(50));
-        System.out.println("ЗАПУСК: Режим по количеству заказов");
-        System.out.println("Параметры: Повара: " + chefCount + ", Официанты: " + waiterCount + ", Очередь: " + queueSize);
-        System.out.println("Цель: " + orderCount + " заказов");
-        System.out.println("=".repeat(50));
+// двоичный журнал жизни заказов в файле, отображенном в память
+// запись - 24 байта: время (нс от открытия), тип события + 1, номер исполнителя, заказ, аргумент
+// тип пишется последним, 0 - запись не дописана (если программа упала посреди работы)
+// место под запись берется одним getAndIncrement, блокировок на горячем пути нет
+class BinaryJournal {
+    static final int MAGIC = 0x524A4E31; // "RJN1"
+    static final int HEADER = 64;        // magic, зерно, время начала, число записей, повара, официанты, очередь
+    static final int RECORD = 24;
+    static final long SEGMENT = RECORD * (1L << 21); // ~48 МБ, файл отображается кусками
+    private static final int MAX_SEGMENTS = 4096;
 
-        Statistics stats = new Statistics();
-        stats.start();
+    private static volatile BinaryJournal current; // null - журнал не пишем
 
-        RestaurantSimulation sim = new RestaurantSimulation(stats, chefCount, waiterCount, queueSize);
-        sim.start();
+    private final String path;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final AtomicReferenceArray<MappedByteBuffer> segments = new AtomicReferenceArray<>(MAX_SEGMENTS);
+    private final AtomicLong next = new AtomicLong(); // номер следующей записи
+    private final long startNanos = System.nanoTime();
+    // закрытие: сначала closed, потом ждем, пока допишут те, кто уже начал (writers),
+    // иначе запись в обрезанный файл через отображение роняет JVM (SIGBUS)
+    private volatile boolean closed;
+    private final AtomicInteger writers = new AtomicInteger();
+    private static final long CLOSE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
 
-        // тут ждем пока наберется нужное количество заказов
-        while (OrderIdGenerator.getTotal() < orderCount) {
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            }
+    private BinaryJournal(String path, long seed, int chefs, int waiters, int queue) throws IOException {
+        this.path = path;
+        channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+        header.putInt(0, MAGIC);
+        header.putLong(8, seed);
+        header.putLong(16, System.currentTimeMillis());
+        header.putInt(32, chefs);
+        header.putInt(36, waiters);
+        header.putInt(40, queue);
+        segment(0);
+    }
+
+    public static void open(String path, long seed, int chefs, int waiters, int queue) throws IOException {
+        close();
+        current = new BinaryJournal(path, seed, chefs, waiters, queue);
+    }
+
+    // вызывать, когда симуляция уже остановлена; опоздавшие потоки после закрытия ничего не пишут.
+    // возвращает число записей (-1 - журнал не писали)
+    public static long close() {
+        BinaryJournal journal = current;
+        if (journal == null) {
+            return -1;
+        }
+        current = null;
+        return journal.finish();
+    }
+
+    public static String getPath() {
+        BinaryJournal journal = current;
+        return journal != null ? journal.path : null;
+    }
+
+    public static void record(int type, long nanos, int orderId, int actor, int arg) {
+        BinaryJournal journal = current;
+        if (journal != null) {
+            journal.append(type, nanos, orderId, actor, arg);
         }
+    }
 
-        // даем время на выполнение оставшихся заказов
+    // "Официант-3" → 3, без номера - 0
+    static int actorNumber(String name) {
         try {
-            Thread.sleep(10000);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+            return Integer.parseInt(name, name.lastIndexOf('-') + 1, name.length(), 10);
+        } catch (NumberFormatException e) {
+            return 0;
         }
+    }
 
-        sim.stop();
-        stats.stop();
-        stats.printStats("По количеству заказов (" + orderCount + ")", chefCount, waiterCount, queueSize);
-        sim.printPersonnelStats();
+    private void append(int type, long nanos, int orderId, int actor, int arg) {
+        writers.incrementAndGet();
+        try {
+            if (closed) {
+                return; // поток не остановился к сроку и пишет уже после закрытия
+            }
+            long offset = next.getAndIncrement() * RECORD;
+            MappedByteBuffer segment = segment((int) (offset / SEGMENT));
+            if (segment == null) {
+                return;
+            }
+            int at = (int) (offset % SEGMENT);
+            segment.putLong(at, nanos - startNanos);
+            segment.putInt(at + 12, actor);
+            segment.putInt(at + 16, orderId);
+            segment.putInt(at + 20, arg);
+            segment.putInt(at + 8, type + 1);
+        } finally {
+            writers.decrementAndGet();
+        }
     }
 
-    private static int getIntInput(String prompt, int min, int max) {
-        int value;
-        while (true) {
-            System.out.print(prompt);
-            try {
-                value = scanner.nextInt();
-                if (value >= min && value <= max) {
-                    scanner.nextLine();
-                    return value;
+    private MappedByteBuffer segment(int index) {
+        MappedByteBuffer segment = segments.get(index);
+        if (segment != null) {
+            return segment;
+        }
+        // новый кусок отображаем один раз, остальные потоки подождут его тут
+        synchronized (this) {
+            segment = segments.get(index);
+            if (segment == null) {
+                try {
+                    segment = channel.map(FileChannel.MapMode.READ_WRITE, HEADER + index * SEGMENT, SEGMENT);
+                } catch (IOException e) {
+                    if (closed) {
+                        return null; // файл уже закрыли, пока этот писатель стоял
+                    }
+                    throw new UncheckedIOException(e);
                 }
-                System.out.printf("Введите число от %d до %d!\n", min, max);
-            } catch (InputMismatchException e) {
-                System.out.println("Введите целое число!");
-                scanner.nextLine();
+                segments.set(index, segment);
             }
+            return segment;
         }
     }
-}
 
-// класс для управления симуляцией
-class RestaurantSimulation {
-    private final Statistics stats;
-    private final int chefCount;
-    private final int waiterCount;
-    private final int queueSize;
+    private long finish() {
+        closed = true;
+        long deadline = System.nanoTime() + CLOSE_WAIT_NANOS;
+        while (writers.get() > 0 && System.nanoTime() - deadline < 0) {
+            Thread.onSpinWait();
+        }
+        boolean quiet = writers.get() == 0;
 
-    private BlockingQueue<Order> customerQueue; // клиенты → официанты
-    private BlockingQueue<Order> kitchenQueue;  // официанты → кухня
-    private Map<Integer, Order> activeOrders;
-    private Object lock;
+        long records = next.get();
+        header.putLong(24, records);
+        try {
+            header.force();
+            for (int i = 0; i < MAX_SEGMENTS && segments.get(i) != null; i++) {
+                segments.get(i).force();
+            }
+            // хвост последнего куска пустой - обрезаем, но только если в отображение больше никто не пишет;
+            // иначе оставляем файл как есть, число записей все равно в заголовке
+            if (quiet) {
+                channel.truncate(HEADER + records * RECORD);
+            }
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Ошибка записи журнала " + path + ": " + e.getMessage());
+        }
+        return records;
+    }
 
-    private CustomerGenerator customerGenerator;
-    private Thread customerThread;
+    // последовательное чтение кусками по SEGMENT: в памяти только текущий кусок файла
+    static class Reader implements AutoCloseable {
+        final long seed;
+        final long startMillis;
+        final long records;
+        final int chefs;
+        final int waiters;
+        final int queue;
 
-    private ExecutorService chefPool;
-    private List<Chef> chefs;
-    private List<Waiter> waiters;
-    private List<Thread> waiterThreads;
+        // текущая запись
+        int type;
+        long time;
+        int actor;
+        int orderId;
+        int arg;
 
-    public RestaurantSimulation(Statistics stats, int chefCount, int waiterCount,
-                                int queueSize) {
-        this.stats = stats;
-        this.chefCount = chefCount;
-        this.waiterCount = waiterCount;
-        this.queueSize = queueSize;
+        private final FileChannel channel;
+        private ByteBuffer segment;
+        private long segmentStart;
+        private long index;
+
+        Reader(String path) throws IOException {
+            channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            ByteBuffer head = ByteBuffer.allocate(HEADER);
+            channel.read(head, 0);
+            if (head.getInt(0) != MAGIC) {
+                channel.close();
+                throw new IOException("это не журнал заказов");
+            }
+            seed = head.getLong(8);
+            startMillis = head.getLong(16);
+            chefs = head.getInt(32);
+            waiters = head.getInt(36);
+            queue = head.getInt(40);
+            // 0 - журнал не закрыли, читаем до первой недописанной записи
+            long written = head.getLong(24);
+            records = written > 0 ? written : (channel.size() - HEADER) / RECORD;
+        }
+
+        boolean next() throws IOException {
+            if (index >= records) {
+                return false;
+            }
+            long offset = index * RECORD;
+            if (segment == null || offset >= segmentStart + segment.capacity()) {
+                segmentStart = offset - offset % SEGMENT;
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, HEADER + segmentStart,
+                        Math.min(SEGMENT, records * RECORD - segmentStart));
+            }
+            int at = (int) (offset - segmentStart);
+            int stored = segment.getInt(at + 8);
+            if (stored == 0) {
+                return false;
+            }
+            type = stored - 1;
+            time = segment.getLong(at);
+            actor = segment.getInt(at + 12);
+            orderId = segment.getInt(at + 16);
+            arg = segment.getInt(at + 20);
+            index++;
+            return true;
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
     }
+}
 
-    public void start() {
-        OrderIdGenerator.reset();
+// какую реализацию очереди использовать между клиентами, официантами и кухней
+enum QueueType {
+    LINKED("LinkedBlockingQueue"),
+    ARRAY("ArrayBlockingQueue"),
+    TRANSFER("LinkedTransferQueue (без ограничения)"),
+    RING("кольцевой буфер MPMC");
 
-        customerQueue = new LinkedBlockingQueue<>(queueSize * 2);
-        kitchenQueue = new LinkedBlockingQueue<>(queueSize);
-        activeOrders = Collections.synchronizedMap(new HashMap<>());
-        lock = new Object();
+    private final String title;
 
-        // сначала запускаем генератор клиентов
-        customerGenerator = new CustomerGenerator(customerQueue, stats);
-        customerThread = new Thread(customerGenerator);
-        customerThread.start();
+    QueueType(String title) {
+        this.title = title;
+    }
 
-        // потом создаем поваров
-        chefPool = Executors.newFixedThreadPool(chefCount);
-        chefs = new ArrayList<>();
+    public String getTitle() {
+        return title;
+    }
 
-        for (int i = 1; i <= chefCount; i++) {
-            Chef chef = new Chef("Повар-" + i, kitchenQueue, activeOrders, lock);
-            chefs.add(chef);
-            chefPool.execute(chef);
+    public <E> BlockingQueue<E> create(int capacity) {
+        switch (this) {
+            case ARRAY:
+                return new ArrayBlockingQueue<>(capacity);
+            case TRANSFER:
+                return new LinkedTransferQueue<>();
+            case RING:
+                return new MpmcRingQueue<>(capacity);
+            default:
+                return new LinkedBlockingQueue<>(capacity);
         }
+    }
+}
 
-        // создаем официантов
-        waiters = new ArrayList<>();
-        waiterThreads = new ArrayList<>();
+// ограниченная очередь на массиве без блокировок (много писателей, много читателей)
+// у каждой ячейки свой номер: == pos - можно писать, == pos + 1 - можно читать
+class MpmcRingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    private final Object[] items;
+    private final AtomicLongArray sequences;
+    private final int capacity;
+    private final AtomicLong head = new AtomicLong(); // откуда читаем
+    private final AtomicLong tail = new AtomicLong(); // куда пишем
 
-        for (int i = 1; i <= waiterCount; i++) {
-            Waiter waiter = new Waiter("Официант-" + i, customerQueue, kitchenQueue,
-                    activeOrders, lock, stats);
-            waiters.add(waiter);
-            Thread thread = new Thread(waiter);
-            waiterThreads.add(thread);
-            thread.start();
+    public MpmcRingQueue(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        items = new Object[capacity];
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
         }
     }
 
-    public void stop() {
-        // останавливаем клиентов
-        if (customerGenerator != null) {
-            customerGenerator.stop();
+    @Override
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        while (true) {
+            long pos = tail.get();
+            int index = (int) (pos % capacity);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items[index] = e;
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false; // полная
+            }
         }
-        if (customerThread != null) {
-            customerThread.interrupt();
-            try { customerThread.join(1000); } catch (InterruptedException ignored) {}
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        while (true) {
+            long pos = head.get();
+            int index = (int) (pos % capacity);
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E e = (E) items[index];
+                    items[index] = null;
+                    sequences.set(index, pos + capacity);
+                    return e;
+                }
+            } else if (diff < 0) {
+                return null; // пустая
+            }
         }
+    }
 
-        // останавливаем официантов
-        for (Waiter waiter : waiters) waiter.stop();
-        for (Thread thread : waiterThreads) {
-            thread.interrupt();
-            try { thread.join(1000); } catch (InterruptedException ignored) {}
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        long pos = head.get();
+        int index = (int) (pos % capacity);
+        return sequences.get(index) == pos + 1 ? (E) items[index] : null;
+    }
+
+    @Override
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(capacity, size));
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        // только для просмотра - снимок того, что лежит сейчас
+        List<E> snapshot = new ArrayList<>();
+        for (long pos = head.get(), end = tail.get(); pos < end; pos++) {
+            E e = peekAt(pos);
+            if (e != null) snapshot.add(e);
         }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
 
-        // останавливаем поваров
-        for (Chef chef : chefs) chef.stop();
-        chefPool.shutdownNow();
+    @SuppressWarnings("unchecked")
+    private E peekAt(long pos) {
+        int index = (int) (pos % capacity);
+        return sequences.get(index) == pos + 1 ? (E) items[index] : null;
+    }
 
-        try {
-            chefPool.awaitTermination(2, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+    @Override
+    public void put(E e) throws InterruptedException {
+        for (int attempt = 0; !offer(e); attempt++) {
+            backoff(attempt);
         }
     }
 
-    public void printPersonnelStats() {
-        System.out.println("\nСТАТИСТИКА ПЕРСОНАЛА:");
-        for (Chef chef : chefs) {
-            System.out.println("  " + chef.getStats());
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int attempt = 0; !offer(e); attempt++) {
+            if (System.nanoTime() - deadline >= 0) return false;
+            backoff(attempt);
         }
-        for (Waiter waiter : waiters) {
-            System.out.println("  " + waiter.getStats());
+        return true;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e;
+        for (int attempt = 0; (e = poll()) == null; attempt++) {
+            backoff(attempt);
         }
+        return e;
+    }
 
-        System.out.println("\nОсталось заказов у клиентов: " + customerQueue.size());
-        System.out.println("Осталось заказов на кухне: " + kitchenQueue.size());
-        System.out.println("Заказов в обработке: " + activeOrders.size());
-        System.out.println("\n" + "=".repeat(50));
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E e;
+        for (int attempt = 0; (e = poll()) == null; attempt++) {
+            if (System.nanoTime() - deadline >= 0) return null;
+            backoff(attempt);
+        }
+        return e;
     }
-}
\ No newline at end of file
+
+    // сначала крутимся, потом уступаем процессор, потом спим понемногу
+    private static void backoff(int attempt) throws InterruptedException {
+        if (Thread.interrupted()) throw new InterruptedException();
+        if (attempt < 64) {
+            Thread.onSpinWait();
+        } else if (attempt < 128) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int count = 0;
+        E e;
+        while (count < maxElements && (e = poll()) != null) {
+            c.add(e);
+            count++;
+        }
+        return count;
+    }
+}
+
+// как приходят клиенты: промежутки между приходами и время готовки заказа
+interface ArrivalProcess {
+    // через сколько наносекунд после предыдущего придет следующий клиент
+    long nextGapNanos();
+
+    // сколько секунд готовить его заказ
+    int nextCookTime();
+
+    // для записи из файла клиенты когда-то заканчиваются
+    default boolean hasNext() {
+        return true;
+    }
+
+    String describe();
+}
+
+// модели прихода клиентов для настроек
+enum ArrivalModel {
+    UNIFORM("равномерно раз в 1-3 сек"),
+    POISSON("поток Пуассона"),
+    BURSTY("наплывы (обеденный час)"),
+    TRACE("запись из файла"),
+    REPLAY("повтор из двоичного журнала");
+
+    private final String title;
+
+    ArrivalModel(String title) {
+        this.title = title;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+}
+
+// как было раньше: клиент раз в 1-3 секунды, готовка 2-6 секунд
+class UniformArrivals implements ArrivalProcess {
+    private final Random random;
+    private final int minGapMillis;
+    private final int maxGapMillis;
+
+    public UniformArrivals(Random random, int minGapMillis, int maxGapMillis) {
+        this.random = random;
+        this.minGapMillis = minGapMillis;
+        this.maxGapMillis = maxGapMillis;
+    }
+
+    public long nextGapNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(minGapMillis + random.nextInt(maxGapMillis - minGapMillis));
+    }
+
+    public int nextCookTime() {
+        return 2 + random.nextInt(5);
+    }
+
+    public String describe() {
+        return String.format("равномерно раз в %.1f-%.1f сек", minGapMillis / 1000.0, maxGapMillis / 1000.0);
+    }
+}
+
+// поток Пуассона: промежутки экспоненциальные со средним 1/rate
+class PoissonArrivals implements ArrivalProcess {
+    private final Random random;
+    private final double ratePerSecond;
+
+    public PoissonArrivals(Random random, double ratePerSecond) {
+        this.random = random;
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    public long nextGapNanos() {
+        return exponentialGap(random, ratePerSecond);
+    }
+
+    static long exponentialGap(Random random, double ratePerSecond) {
+        return (long) (-Math.log(1 - random.nextDouble()) / ratePerSecond * 1e9);
+    }
+
+    public int nextCookTime() {
+        return 2 + random.nextInt(5);
+    }
+
+    public String describe() {
+        return String.format("Пуассон, %.2f клиентов/сек", ratePerSecond);
+    }
+}
+
+// обеденный наплыв: периоды наплыва и затишья, внутри каждого - Пуассон со своей интенсивностью
+class BurstyArrivals implements ArrivalProcess {
+    private final Random random;
+    private final double burstRate;
+    private final double quietRate;
+    private final long burstNanos;
+    private final long quietNanos;
+    private long clock; // время процесса от начала
+
+    public BurstyArrivals(Random random, double burstRate, double quietRate,
+                          int burstSeconds, int quietSeconds) {
+        this.random = random;
+        this.burstRate = burstRate;
+        this.quietRate = quietRate;
+        this.burstNanos = TimeUnit.SECONDS.toNanos(burstSeconds);
+        this.quietNanos = TimeUnit.SECONDS.toNanos(quietSeconds);
+    }
+
+    public long nextGapNanos() {
+        long start = clock;
+        while (true) {
+            long cycle = burstNanos + quietNanos;
+            long phase = clock % cycle;
+            boolean burst = phase < burstNanos;
+            long phaseLeft = burst ? burstNanos - phase : cycle - phase;
+            double rate = burst ? burstRate : quietRate;
+
+            // если в этом периоде никто не успел прийти - переходим в следующий
+            long gap = rate > 0 ? PoissonArrivals.exponentialGap(random, rate) : Long.MAX_VALUE;
+            if (gap < phaseLeft) {
+                clock += gap;
+                return clock - start;
+            }
+            clock += phaseLeft;
+        }
+    }
+
+    public int nextCookTime() {
+        return 2 + random.nextInt(5);
+    }
+
+    public String describe() {
+        return String.format("наплывы: %.2f/сек %d сек, затем %.2f/сек %d сек",
+                burstRate, TimeUnit.NANOSECONDS.toSeconds(burstNanos),
+                quietRate, TimeUnit.NANOSECONDS.toSeconds(quietNanos));
+    }
+}
+
+// повтор записанного потока клиентов: в каждой строке "время_мс время_готовки_сек"
+// первый клиент приходит сразу, остальные - с теми же промежутками, что в записи
+class TraceArrivals implements ArrivalProcess {
+    private final String path;
+    private final long[] times;
+    private final int[] cookTimes;
+    private int next; // номер следующего клиента
+
+    public TraceArrivals(String path) throws IOException {
+        this.path = path;
+        List<long[]> rows = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path))) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("[,;\\s]+");
+            rows.add(new long[]{Long.parseLong(parts[0]), Integer.parseInt(parts[1])});
+        }
+        times = new long[rows.size()];
+        cookTimes = new int[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            times[i] = rows.get(i)[0];
+            cookTimes[i] = (int) rows.get(i)[1];
+        }
+    }
+
+    public boolean hasNext() {
+        return next < times.length;
+    }
+
+    // сначала берется время готовки клиента, потом промежуток до следующего
+    public int nextCookTime() {
+        return cookTimes[next++];
+    }
+
+    public long nextGapNanos() {
+        if (next == 0 || next >= times.length) {
+            return 0;
+        }
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, times[next] - times[next - 1]));
+    }
+
+    public String describe() {
+        return "запись " + path + " (" + times.length + " клиентов)";
+    }
+}
+
+// повтор прихода клиентов из двоичного журнала: те же промежутки с точностью до наносекунды
+// и те же времена готовки; журнал читается по ходу, целиком в память не грузится
+class JournalArrivals implements ArrivalProcess {
+    private final String path;
+    private final BinaryJournal.Reader reader;
+    private boolean hasNext;
+    private long lastTime;
+    private int cookTime;
+
+    public JournalArrivals(String path) throws IOException {
+        this.path = path;
+        reader = new BinaryJournal.Reader(path);
+        hasNext = advance();
+        lastTime = reader.time;
+    }
+
+    // к следующему приходу клиента
+    private boolean advance() throws IOException {
+        while (reader.next()) {
+            if (reader.type == EventLog.ORDER_CREATED) {
+                cookTime = reader.arg;
+                return true;
+            }
+        }
+        reader.close();
+        return false;
+    }
+
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    public int nextCookTime() {
+        return cookTime;
+    }
+
+    public long nextGapNanos() {
+        try {
+            hasNext = hasNext && advance();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long gap = hasNext ? reader.time - lastTime : 0;
+        lastTime = reader.time;
+        return Math.max(0, gap);
+    }
+
+    public String describe() {
+        return "повтор журнала " + path + " (зерно " + reader.seed + ")";
+    }
+}
+
+// что делать, когда очередь клиентов или кухня заполнены
+enum OverloadPolicy {
+    BLOCK("ждать места (как раньше)"),
+    REJECT("отказывать сразу"),
+    TIMEOUT("ждать не дольше заданного"),
+    DEGRADE("упрощать заказы");
+
+    // столько готовится упрощенное блюдо
+    static final int DEGRADED_COOK_TIME = 1;
+
+    private final String title;
+
+    OverloadPolicy(String title) {
+        this.title = title;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+}
+
+// клиенты
+// приходят по расписанию от ArrivalProcess и не ждут, пока их обслужат (открытая нагрузка):
+// время создания заказа - запланированное время прихода, даже если в очередь он попал позже
+class CustomerGenerator implements Runnable {
+    private static final int BATCH = 256; // сколько пришедших клиентов ставим в очередь за раз
+
+    private final BlockingQueue<Order> orderQueue; // очередь для новых заказов
+    private volatile boolean running = true;
+    private final Statistics stats;
+    private final ArrivalProcess arrivals;
+    private final OrderIdGenerator orderIds;
+    private OverloadPolicy overloadPolicy = OverloadPolicy.BLOCK;
+    private long maxWaitNanos;
+    private int orderLimit; // 0 - без ограничения
+    private OrderPool orderPool; // null - каждый заказ новый
+    private final List<Order> batch = new ArrayList<>(BATCH);
+    private int sent; // сколько заказов из batch уже в очереди (или получили отказ)
+
+    public CustomerGenerator(BlockingQueue<Order> orderQueue, Statistics stats, OrderIdGenerator orderIds) {
+        this(orderQueue, stats, orderIds, new UniformArrivals(new Random(), 1000, 3000));
+    }
+
+    public CustomerGenerator(BlockingQueue<Order> orderQueue, Statistics stats, OrderIdGenerator orderIds,
+                             ArrivalProcess arrivals) {
+        this.orderQueue = orderQueue;
+        this.stats = stats;
+        this.orderIds = orderIds;
+        this.arrivals = arrivals;
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    // после orderLimit заказов клиенты больше не приходят
+    public void setOrderLimit(int orderLimit) {
+        this.orderLimit = orderLimit;
+    }
+
+    public void setOrderPool(OrderPool orderPool) {
+        this.orderPool = orderPool;
+    }
+
+    private boolean hasNext() {
+        return arrivals.hasNext() && (orderLimit == 0 || orderIds.getTotal() < orderLimit);
+    }
+
+    // REJECT - клиент уходит сразу, если мест нет; TIMEOUT - ждет не дольше maxWaitMillis
+    public void setOverloadPolicy(OverloadPolicy overloadPolicy, long maxWaitMillis) {
+        this.overloadPolicy = overloadPolicy;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    @Override
+    public void run() {
+        EventLog.staff(EventLog.CUSTOMERS_STARTED, null);
+
+        long nextArrival = System.nanoTime();
+
+        while (running && !Thread.currentThread().isInterrupted() && hasNext()) {
+            try {
+                long now = System.nanoTime();
+                if (nextArrival > now) {
+                    // ждем следующего клиента
+                    LockSupport.parkNanos(nextArrival - now);
+                    continue;
+                }
+
+                // все, кто уже должен был прийти, приходят одной пачкой
+                batch.clear();
+                sent = 0;
+                while (batch.size() < BATCH && nextArrival <= now && hasNext()) {
+                    batch.add(generateOrder(nextArrival));
+                    nextArrival += arrivals.nextGapNanos();
+                }
+
+                // кладем заказы в очередь для официантов
+                for (; sent < batch.size(); sent++) {
+                    Order order = batch.get(sent);
+                    stats.recordOrderCreated(orderQueue.size());
+                    // после enqueue заказ уже у официанта и может вернуться в пул
+                    int id = order.getId();
+                    int cookTime = order.getCookTime();
+                    BinaryJournal.record(EventLog.ORDER_CREATED, order.getCreatedAt(), id, 0, cookTime);
+                    if (enqueue(order)) {
+                        EventLog.order(EventLog.ORDER_CREATED, null, id, cookTime, null);
+                    } else if (orderPool != null) {
+                        orderPool.release(order);
+                    }
+                }
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        EventLog.staff(EventLog.CUSTOMERS_STOPPED, null);
+    }
+
+    // пришли, но так и не встали в очередь: генератор остановили посреди пачки
+    // читать после того, как поток генератора закончился
+    public List<Order> getUnsent() {
+        return new ArrayList<>(batch.subList(sent, batch.size()));
+    }
+
+    // false - клиент так и не встал в очередь
+    private boolean enqueue(Order order) throws InterruptedException {
+        switch (overloadPolicy) {
+            case REJECT:
+                if (orderQueue.offer(order)) {
+                    return true;
+                }
+                stats.recordOrderRejected();
+                EventLog.order(EventLog.ORDER_REJECTED, null, order.getId(), 0, null);
+                BinaryJournal.record(EventLog.ORDER_REJECTED, System.nanoTime(), order.getId(), 0, 0);
+                return false;
+            case TIMEOUT:
+                // ждать клиент начал с момента прихода, а не с момента, когда до него дошла очередь
+                long left = order.getCreatedAt() + maxWaitNanos - System.nanoTime();
+                if (orderQueue.offer(order, Math.max(0, left), TimeUnit.NANOSECONDS)) {
+                    return true;
+                }
+                stats.recordOrderTimedOut();
+                EventLog.order(EventLog.ORDER_TIMED_OUT, null, order.getId(), 0, null);
+                BinaryJournal.record(EventLog.ORDER_TIMED_OUT, System.nanoTime(), order.getId(), 0, 0);
+                return false;
+            default:
+                // очередь полная - ждем место, но расписание следующих клиентов не сдвигается
+                while (!orderQueue.offer(order, 10, TimeUnit.MILLISECONDS)) {
+                    if (!running) {
+                        throw new InterruptedException();
+                    }
+                }
+                return true;
+        }
+    }
+
+    private Order generateOrder(long arrivalNanos) {
+        int orderId = orderIds.generateId();
+        Order order = orderPool != null
+                ? orderPool.acquire(orderId, arrivals.nextCookTime())
+                : new Order(orderId, arrivals.nextCookTime(), null);
+        order.markCreated(arrivalNanos);
+        return order;
+    }
+}
+
+// гистограмма задержек: фиксированный массив корзин, запись без блокировок
+// корзины логарифмические с 32 делениями на каждую степень двойки (точность ~3%)
+class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder(); // для точного среднего
+    private final AtomicLong max = new AtomicLong();
+
+    // значение в микросекундах
+    public void record(long micros) {
+        long value = Math.max(0, micros);
+        counts.incrementAndGet(bucket(value));
+        total.increment();
+        sum.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    private static int bucket(long value) {
+        if (value < 2 * SUB) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((value >>> shift) - SUB);
+    }
+
+    // середина корзины
+    private static long bucketValue(int index) {
+        if (index < 2 * SUB) {
+            return index;
+        }
+        int shift = index / SUB - 1;
+        long low = (long) (SUB + index % SUB) << shift;
+        return low + (1L << shift) / 2;
+    }
+
+    public long getCount() {
+        return total.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = total.sum();
+        return count > 0 ? (double) sum.sum() / count : 0;
+    }
+
+    // percentile от 0 до 100
+    public long percentile(double percentile) {
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(bucketValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+}
+
+// пункт со статистикой
+class Statistics {
+    private final AtomicInteger ordersCreated = new AtomicInteger(0);
+    private final AtomicInteger ordersCompleted = new AtomicInteger(0);
+    private final AtomicInteger maxQueueSize = new AtomicInteger(0);
+
+    // задержки по этапам
+    private final LatencyHistogram waiterWait = new LatencyHistogram();  // ждал официанта
+    private final LatencyHistogram kitchenWait = new LatencyHistogram(); // ждал повара
+    private final LatencyHistogram cooking = new LatencyHistogram();     // готовился
+    private final LatencyHistogram delivery = new LatencyHistogram();    // ждал доставки
+    private final LatencyHistogram endToEnd = new LatencyHistogram();    // от клиента до клиента
+
+    // размеры пакетов (только когда пакеты включены), последняя ячейка - MAX_BATCH и больше
+    static final int MAX_BATCH = 64;
+    private final AtomicLongArray waiterBatches = new AtomicLongArray(MAX_BATCH + 1);
+    private final AtomicLongArray cookBatches = new AtomicLongArray(MAX_BATCH + 1);
+    private final LongAdder cookSecondsSaved = new LongAdder(); // сколько секунд поваров сэкономили пакеты
+    private String kitchenDiscipline; // порядок на кухне, печатаем рядом с задержками
+
+    // по кухням, если их несколько
+    private LatencyHistogram[] shardKitchenWait;
+    private LatencyHistogram[] shardEndToEnd;
+    private String routingTitle;
+
+    private KitchenStations stations; // кухня по станциям (null - повар готовит заказ целиком)
+
+    // скользящее среднее ожидания на этапах (мкс) - сигнал для автоподбора персонала
+    private final AtomicLong recentWaiterWait = new AtomicLong();
+    private final AtomicLong recentKitchenWait = new AtomicLong();
+
+    // перегрузка
+    private final LongAdder ordersRejected = new LongAdder(); // отказали сразу
+    private final LongAdder ordersTimedOut = new LongAdder(); // клиент не дождался
+    private final LongAdder ordersDegraded = new LongAdder(); // готовили упрощенное блюдо
+    private final LongAdder ordersLost = new LongAdder(); // приготовили, но отдать некому
+    private long startTime;
+    private long endTime;
+
+    // режим по количеству заказов: ждем, пока каждый заказ доставят или потеряют
+    private final AtomicInteger ordersRemaining = new AtomicInteger(-1); // -1 - не ждем
+    private final CountDownLatch allFinished = new CountDownLatch(1);
+    private volatile long startNanos;
+    private volatile long finishNanos;
+
+    // заказы, доставленные во время остановки (null - не записываем)
+    private volatile Queue<Integer> completedIds;
+
+    public void start() {
+        start(System.currentTimeMillis());
+    }
+
+    public void stop() {
+        stop(System.currentTimeMillis());
+    }
+
+    // время можно передать явно (нужно для виртуального времени)
+    public void start(long timeMillis) {
+        startTime = timeMillis;
+        startNanos = System.nanoTime();
+    }
+
+    // вызвать до start симуляции: столько заказов должно закончиться
+    public void expectOrders(int count) {
+        ordersRemaining.set(count);
+    }
+
+    // true - закончились все ожидаемые заказы, false - вышел timeout
+    public boolean awaitOrders(long timeout, TimeUnit unit) throws InterruptedException {
+        return allFinished.await(timeout, unit);
+    }
+
+    public int getOrdersRemaining() {
+        return Math.max(0, ordersRemaining.get());
+    }
+
+    // от start до последнего заказа (наносекунды)
+    public long getMakespanNanos() {
+        return finishNanos - startNanos;
+    }
+
+    // с этого момента запоминаем id доставленных заказов (отчет об остановке)
+    public void trackCompleted() {
+        completedIds = new ConcurrentLinkedQueue<>();
+    }
+
+    public List<Integer> getTrackedCompleted() {
+        Queue<Integer> ids = completedIds;
+        return ids != null ? new ArrayList<>(ids) : new ArrayList<>();
+    }
+
+    // заказ закончился: доставлен, отклонен или клиент ушел
+    private void orderFinished() {
+        if (ordersRemaining.get() > 0 && ordersRemaining.decrementAndGet() == 0) {
+            finishNanos = System.nanoTime();
+            allFinished.countDown();
+        }
+    }
+
+    public void stop(long timeMillis) {
+        endTime = timeMillis;
+    }
+
+    public long getElapsedMillis() {
+        return endTime - startTime;
+    }
+
+    public void setKitchenDiscipline(KitchenDiscipline discipline) {
+        this.kitchenDiscipline = discipline.getTitle();
+    }
+
+    // вызвать до начала работы
+    public void setShards(int shards, RoutingPolicy routing) {
+        shardKitchenWait = new LatencyHistogram[shards];
+        shardEndToEnd = new LatencyHistogram[shards];
+        for (int i = 0; i < shards; i++) {
+            shardKitchenWait[i] = new LatencyHistogram();
+            shardEndToEnd[i] = new LatencyHistogram();
+        }
+        routingTitle = routing.getTitle();
+    }
+
+    public void setStations(KitchenStations stations) {
+        this.stations = stations;
+    }
+
+    public void recordOrderCreated(int queueSize) {
+        ordersCreated.incrementAndGet();
+        maxQueueSize.accumulateAndGet(queueSize, Math::max);
+    }
+
+    public void recordOrderCompleted(Order order) {
+        ordersCompleted.incrementAndGet();
+        orderFinished();
+        Queue<Integer> ids = completedIds;
+        if (ids != null) {
+            ids.add(order.getId());
+        }
+
+        waiterWait.record(micros(order.getPickedUpAt() - order.getCreatedAt()));
+        kitchenWait.record(micros(order.getKitchenStartAt() - order.getPickedUpAt()));
+        cooking.record(micros(order.getCookedAt() - order.getKitchenStartAt()));
+        delivery.record(micros(order.getDeliveredAt() - order.getCookedAt()));
+        endToEnd.record(micros(order.getDeliveredAt() - order.getCreatedAt()));
+        if (shardEndToEnd != null) {
+            shardKitchenWait[order.getShard()].record(micros(order.getKitchenStartAt() - order.getPickedUpAt()));
+            shardEndToEnd[order.getShard()].record(micros(order.getDeliveredAt() - order.getCreatedAt()));
+        }
+    }
+
+    // официант забрал заказ / повар начал готовить: обновляем среднее сразу, не дожидаясь доставки
+    public void noteWaiterWait(long nanos) {
+        ewma(recentWaiterWait, micros(nanos));
+    }
+
+    public void noteKitchenWait(long nanos) {
+        ewma(recentKitchenWait, micros(nanos));
+    }
+
+    // без CAS: если два потока обновят одновременно, одно значение потеряется - для среднего не страшно
+    private static void ewma(AtomicLong average, long sample) {
+        long old = average.get();
+        average.lazySet(old + (sample - old) / 8);
+    }
+
+    public long getRecentWaiterWaitMillis() {
+        return recentWaiterWait.get() / 1000;
+    }
+
+    public long getRecentKitchenWaitMillis() {
+        return recentKitchenWait.get() / 1000;
+    }
+
+    public void recordOrderRejected() {
+        ordersRejected.increment();
+        orderFinished();
+    }
+
+    public void recordOrderTimedOut() {
+        ordersTimedOut.increment();
+        orderFinished();
+    }
+
+    public void recordOrderDegraded() {
+        ordersDegraded.increment();
+    }
+
+    public void recordOrderLost() {
+        ordersLost.increment();
+        orderFinished();
+    }
+
+    public long getOrdersLost() {
+        return ordersLost.sum();
+    }
+
+    public long getOrdersRejected() {
+        return ordersRejected.sum();
+    }
+
+    public long getOrdersTimedOut() {
+        return ordersTimedOut.sum();
+    }
+
+    // официант за один подход забрал size заказов
+    public void recordWaiterBatch(int size) {
+        waiterBatches.incrementAndGet(Math.min(size, MAX_BATCH));
+    }
+
+    // повар приготовил size одинаковых заказов за одну готовку
+    public void recordCookBatch(int size, int cookTime) {
+        cookBatches.incrementAndGet(Math.min(size, MAX_BATCH));
+        cookSecondsSaved.add((long) (size - 1) * cookTime);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    public LatencyHistogram getEndToEnd() {
+        return endToEnd;
+    }
+
+    public LatencyHistogram getWaiterWait() {
+        return waiterWait;
+    }
+
+    public LatencyHistogram getKitchenWait() {
+        return kitchenWait;
+    }
+
+    public long getOrdersDegraded() {
+        return ordersDegraded.sum();
+    }
+
+    public int getOrdersCreated() {
+        return ordersCreated.get();
+    }
+
+    public int getOrdersCompleted() {
+        return ordersCompleted.get();
+    }
+
+    public void printStats(String mode, int chefs, int waiters, int queue) {
+        long totalTime = (endTime - startTime) / 1000;
+
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("ИТОГОВАЯ СТАТИСТИКА");
+        System.out.println("=".repeat(50));
+        System.out.println("Режим: " + mode);
+        System.out.println("Параметры: Повара: " + chefs + ", Официанты: " + waiters + ", Очередь: " + queue);
+        if (kitchenDiscipline != null) {
+            System.out.println("Порядок на кухне: " + kitchenDiscipline);
+        }
+        System.out.printf("Время работы: %d сек\n", totalTime);
+        System.out.printf("Всего заказов создано: %d\n", ordersCreated.get());
+        System.out.printf("Заказов выполнено: %d\n", ordersCompleted.get());
+        System.out.printf("Не выполнено: %d\n", ordersCreated.get() - ordersCompleted.get());
+        System.out.printf("Максимальная очередь клиентов: %d\n", maxQueueSize.get());
+        if (ordersLost.sum() > 0) {
+            System.out.printf("Потеряно готовых (официанта уже нет): %d\n", ordersLost.sum());
+        }
+        long rejected = ordersRejected.sum();
+        long timedOut = ordersTimedOut.sum();
+        long degraded = ordersDegraded.sum();
+        if (rejected + timedOut + degraded > 0) {
+            System.out.printf("Перегрузка: отказано %d, ушли не дождавшись %d, упрощено %d\n",
+                    rejected, timedOut, degraded);
+            if (endTime > startTime) {
+                System.out.printf("Выполнено в минуту: %.1f\n", ordersCompleted.get() * 60_000.0 / (endTime - startTime));
+            }
+        }
+
+        if (endToEnd.getCount() > 0) {
+            System.out.println("\nЗАДЕРЖКИ (мс):");
+            System.out.printf("  %-20s %9s %9s %9s %9s %9s\n", "Этап", "p50", "p90", "p99", "p99.9", "max");
+            printLatency("Ожидание официанта", waiterWait);
+            printLatency("Очередь кухни", kitchenWait);
+            printLatency("Готовка", cooking);
+            printLatency("Доставка", delivery);
+            printLatency("Всего", endToEnd);
+        }
+
+        if (shardEndToEnd != null) {
+            System.out.println("\nПО КУХНЯМ (" + routingTitle + "):");
+            System.out.printf("  %-7s %10s %10s %12s %12s %10s %10s\n", "Кухня", "выполнено", "в минуту",
+                    "очередь p50", "очередь p99", "всего p50", "всего p99");
+            for (int i = 0; i < shardEndToEnd.length; i++) {
+                long done = shardEndToEnd[i].getCount();
+                System.out.printf("  %-7d %10d %10.1f %12.1f %12.1f %10.1f %10.1f\n", i + 1, done,
+                        endTime > startTime ? done * 60_000.0 / (endTime - startTime) : 0,
+                        shardKitchenWait[i].percentile(50) / 1000.0, shardKitchenWait[i].percentile(99) / 1000.0,
+                        shardEndToEnd[i].percentile(50) / 1000.0, shardEndToEnd[i].percentile(99) / 1000.0);
+            }
+            if (endTime > startTime) {
+                System.out.printf("  Всего: %.1f в минуту\n", ordersCompleted.get() * 60_000.0 / (endTime - startTime));
+            }
+        }
+
+        if (stations != null && endTime > startTime) {
+            stations.printUtilization(endTime - startTime);
+        }
+
+        long waiterTrips = sum(waiterBatches);
+        long cooks = sum(cookBatches);
+        if (waiterTrips > 0 || cooks > 0) {
+            System.out.println("\nПАКЕТЫ:");
+            if (endTime > startTime) {
+                System.out.printf("  Пропускная способность: %.2f заказов/сек\n",
+                        ordersCompleted.get() * 1000.0 / (endTime - startTime));
+            }
+            if (waiterTrips > 0) {
+                long taken = weighted(waiterBatches);
+                System.out.printf("  Официанты: %d заказов за %d подходов (в среднем %.2f)\n",
+                        taken, waiterTrips, (double) taken / waiterTrips);
+                printBatchSizes(waiterBatches);
+            }
+            if (cooks > 0) {
+                long cooked = weighted(cookBatches);
+                // без пакетов каждый заказ готовился бы отдельно - во столько раз больше работы кухни
+                System.out.printf("  Кухня: %d заказов за %d готовок, выигрыш x%.2f, сэкономлено %d сек работы поваров\n",
+                        cooked, cooks, (double) cooked / cooks, cookSecondsSaved.sum());
+                printBatchSizes(cookBatches);
+            }
+        }
+    }
+
+    private static long sum(AtomicLongArray sizes) {
+        long total = 0;
+        for (int i = 1; i < sizes.length(); i++) total += sizes.get(i);
+        return total;
+    }
+
+    private static long weighted(AtomicLongArray sizes) {
+        long total = 0;
+        for (int i = 1; i < sizes.length(); i++) total += i * sizes.get(i);
+        return total;
+    }
+
+    private static void printBatchSizes(AtomicLongArray sizes) {
+        StringBuilder line = new StringBuilder("    размер:раз ");
+        for (int i = 1; i < sizes.length(); i++) {
+            if (sizes.get(i) > 0) {
+                line.append(' ').append(i).append(i == MAX_BATCH ? "+" : "").append(':').append(sizes.get(i));
+            }
+        }
+        System.out.println(line);
+    }
+
+    private static void printLatency(String stage, LatencyHistogram histogram) {
+        System.out.printf("  %-20s %9.1f %9.1f %9.1f %9.1f %9.1f\n", stage,
+                histogram.percentile(50) / 1000.0, histogram.percentile(90) / 1000.0,
+                histogram.percentile(99) / 1000.0, histogram.percentile(99.9) / 1000.0,
+                histogram.getMax() / 1000.0);
+    }
+}
+
+// кухня: официанты сдают сюда заказы, повара забирают
+interface Kitchen {
+    // ждет, если на кухне нет места
+    void put(Order order) throws InterruptedException;
+
+    // то же, но ждет места не дольше timeout; false - кухня так и не освободилась
+    boolean offer(Order order, long timeout, TimeUnit unit) throws InterruptedException;
+
+    // chef - номер повара (с нуля), null - за timeout ничего не появилось
+    Order take(int chef, long timeout, TimeUnit unit) throws InterruptedException;
+
+    int size();
+
+    // номера поваров на смене, нужно только раздельным очередям (по умолчанию на смене все)
+    default void setActiveChefs(int[] chefs) {
+    }
+}
+
+// как было: одна общая очередь на всех поваров
+class SharedQueueKitchen implements Kitchen {
+    private final BlockingQueue<Order> queue;
+
+    public SharedQueueKitchen(BlockingQueue<Order> queue) {
+        this.queue = queue;
+    }
+
+    public void put(Order order) throws InterruptedException {
+        queue.put(order);
+    }
+
+    public boolean offer(Order order, long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.offer(order, timeout, unit);
+    }
+
+    public Order take(int chef, long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    public int size() {
+        return queue.size();
+    }
+}
+
+// у каждого повара своя очередь, заказ отдаем наименее загруженному,
+// а освободившийся повар забирает работу у самого загруженного соседа
+class WorkStealingKitchen implements Kitchen {
+    private final ConcurrentLinkedDeque<Order>[] deques;
+    private final AtomicInteger[] loads; // длина очереди каждого повара (size() у deque идет по всему списку)
+    private final AtomicReferenceArray<Thread> parked; // кто из поваров сейчас спит
+    private final Semaphore space; // общий лимит заказов на кухне, как был у kitchenQueue
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger nextStart = new AtomicInteger();
+    private volatile int[] activeChefs; // новые заказы раздаем только им, у ушедших остатки перехватят
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public WorkStealingKitchen(int chefCount, int capacity) {
+        deques = new ConcurrentLinkedDeque[chefCount];
+        loads = new AtomicInteger[chefCount];
+        for (int i = 0; i < chefCount; i++) {
+            deques[i] = new ConcurrentLinkedDeque<>();
+            loads[i] = new AtomicInteger();
+        }
+        parked = new AtomicReferenceArray<>(chefCount);
+        space = new Semaphore(capacity);
+        activeChefs = new int[chefCount];
+        for (int i = 0; i < chefCount; i++) activeChefs[i] = i;
+    }
+
+    public void setActiveChefs(int[] chefs) {
+        // без поваров заказы все равно надо куда-то класть - пусть лежат у нулевого, перехватят
+        activeChefs = chefs.length > 0 ? chefs.clone() : new int[]{0};
+    }
+
+    public void put(Order order) throws InterruptedException {
+        space.acquire();
+        add(order);
+    }
+
+    public boolean offer(Order order, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!space.tryAcquire(timeout, unit)) {
+            return false;
+        }
+        add(order);
+        return true;
+    }
+
+    private void add(Order order) {
+        int chef = leastLoaded();
+        loads[chef].incrementAndGet();
+        total.incrementAndGet();
+        deques[chef].offerLast(order);
+
+        // будим хозяина очереди, а если он не спит - первого спящего, пусть перехватит
+        for (int i = 0; i < deques.length; i++) {
+            Thread thread = parked.get((chef + i) % deques.length);
+            if (thread != null) {
+                LockSupport.unpark(thread);
+                break;
+            }
+        }
+    }
+
+    private int leastLoaded() {
+        // начинаем с разных мест, чтобы при равной загрузке заказы расходились по всем
+        int[] active = activeChefs;
+        int start = Math.floorMod(nextStart.getAndIncrement(), active.length);
+        int best = active[start];
+        int bestLoad = loads[best].get();
+        for (int i = 1; i < active.length && bestLoad > 0; i++) {
+            int chef = active[(start + i) % active.length];
+            int load = loads[chef].get();
+            if (load < bestLoad) {
+                best = chef;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    public Order take(int chef, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            Order order = poll(chef);
+            if (order == null) {
+                order = steal(chef);
+            }
+            if (order != null) {
+                total.decrementAndGet();
+                space.release();
+                return order;
+            }
+
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return null;
+            }
+            // сначала записываемся в спящие, потом еще раз смотрим счетчик - так не пропустим put
+            parked.set(chef, Thread.currentThread());
+            if (total.get() == 0) {
+                LockSupport.parkNanos(this, left);
+            }
+            parked.set(chef, null);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private Order poll(int chef) {
+        Order order = deques[chef].pollFirst();
+        if (order != null) {
+            loads[chef].decrementAndGet();
+        }
+        return order;
+    }
+
+    // забираем самый старый заказ у самого загруженного повара
+    private Order steal(int thief) {
+        int victim = -1;
+        int victimLoad = 0;
+        for (int i = 1; i < deques.length; i++) {
+            int chef = (thief + i) % deques.length;
+            int load = loads[chef].get();
+            if (load > victimLoad) {
+                victim = chef;
+                victimLoad = load;
+            }
+        }
+        return victim >= 0 ? poll(victim) : null;
+    }
+
+    public int size() {
+        return total.get();
+    }
+}
+
+// на кухне одна общая очередь или у каждого повара своя
+enum KitchenMode {
+    SHARED("общая очередь"),
+    WORK_STEALING("очередь у каждого повара + перехват");
+
+    private final String title;
+
+    KitchenMode(String title) {
+        this.title = title;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public Kitchen create(QueueType queueType, int chefCount, int capacity) {
+        if (this == WORK_STEALING) {
+            return new WorkStealingKitchen(chefCount, capacity);
+        }
+        return new SharedQueueKitchen(queueType.create(capacity));
+    }
+}
+
+// в каком порядке повара берут заказы
+enum KitchenDiscipline {
+    FIFO("по очереди (FIFO)"),
+    SHORTEST_FIRST("сначала быстрые"),
+    EARLIEST_DEADLINE("ближайший срок"),
+    AGING("сначала быстрые, с учетом ожидания");
+
+    // AGING: каждые 10 сек ожидания засчитываются заказу как 1 сек готовки,
+    // так долгие блюда не застревают навсегда за потоком быстрых
+    private static final long AGING_NANOS_PER_COOK_SECOND = TimeUnit.SECONDS.toNanos(10);
+
+    private final String title;
+
+    KitchenDiscipline(String title) {
+        this.title = title;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    // null - обычная очередь, порядок не меняем
+    public Comparator<Order> comparator() {
+        switch (this) {
+            case SHORTEST_FIRST:
+                return Comparator.comparingInt(Order::getCookTime).thenComparingInt(Order::getId);
+            case EARLIEST_DEADLINE:
+                // клиент готов ждать время готовки плюс одинаковый для всех запас,
+                // запас на порядок не влияет - срок считаем от прихода клиента
+                return Comparator.comparingLong((Order order) ->
+                        order.getCreatedAt() + TimeUnit.SECONDS.toNanos(order.getCookTime()))
+                        .thenComparingInt(Order::getId);
+            case AGING:
+                // приоритет = время готовки - ожидание / 10 сек; "сейчас" у всех одно и то же,
+                // поэтому достаточно сравнивать время прихода + время готовки * 10 сек
+                return Comparator.comparingLong((Order order) ->
+                        order.getCreatedAt() + order.getCookTime() * AGING_NANOS_PER_COOK_SECOND)
+                        .thenComparingInt(Order::getId);
+            default:
+                return null;
+        }
+    }
+
+    // очередь кухни для виртуального времени
+    public Queue<Order> newQueue() {
+        Comparator<Order> comparator = comparator();
+        return comparator == null ? new ArrayDeque<>() : new PriorityQueue<>(comparator);
+    }
+}
+
+// общая очередь кухни с приоритетами (для всех порядков кроме FIFO)
+class PriorityKitchen implements Kitchen {
+    private final PriorityBlockingQueue<Order> queue;
+    private final Semaphore space; // PriorityBlockingQueue не ограничена, лимит держим сами
+
+    public PriorityKitchen(KitchenDiscipline discipline, int capacity) {
+        queue = new PriorityBlockingQueue<>(capacity, discipline.comparator());
+        space = new Semaphore(capacity);
+    }
+
+    public void put(Order order) throws InterruptedException {
+        space.acquire();
+        queue.put(order);
+    }
+
+    public boolean offer(Order order, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!space.tryAcquire(timeout, unit)) {
+            return false;
+        }
+        queue.put(order);
+        return true;
+    }
+
+    public Order take(int chef, long timeout, TimeUnit unit) throws InterruptedException {
+        Order order = queue.poll(timeout, unit);
+        if (order != null) {
+            space.release();
+        }
+        return order;
+    }
+
+    public int size() {
+        return queue.size();
+    }
+}
+
+// куда отправлять заказ, если кухонь несколько
+enum RoutingPolicy {
+    ROUND_ROBIN("по кругу"),
+    SHORTEST_QUEUE("в самую короткую очередь"),
+    TWO_CHOICES("лучшая из двух случайных"),
+    WAITER_AFFINITY("у каждого официанта своя кухня");
+
+    private final String title;
+
+    RoutingPolicy(String title) {
+        this.title = title;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    // sequence - счетчик для "по кругу", waiter - номер официанта с нуля
+    public int choose(int shards, java.util.function.IntUnaryOperator queueSize, int waiter,
+                      int sequence, Random random) {
+        switch (this) {
+            case SHORTEST_QUEUE: {
+                // начинаем с разных кухонь, иначе при пустых очередях все летит на первую
+                int best = Math.floorMod(sequence, shards);
+                int bestSize = queueSize.applyAsInt(best);
+                for (int i = 1; i < shards && bestSize > 0; i++) {
+                    int shard = (best + i) % shards;
+                    int size = queueSize.applyAsInt(shard);
+                    if (size < bestSize) {
+                        best = shard;
+                        bestSize = size;
+                    }
+                }
+                return best;
+            }
+            case TWO_CHOICES: {
+                if (shards == 1) return 0;
+                int a = random.nextInt(shards);
+                int b = random.nextInt(shards - 1);
+                if (b >= a) b++; // вторая - обязательно другая
+                return queueSize.applyAsInt(b) < queueSize.applyAsInt(a) ? b : a;
+            }
+            case WAITER_AFFINITY:
+                return Math.floorMod(waiter, shards);
+            default:
+                return Math.floorMod(sequence, shards);
+        }
+    }
+}
+
+// несколько независимых кухонь со своими поварами и очередями,
+// официанты сдают заказы через маршрутизатор; повар номер c работает на кухне c % shards
+class ShardedKitchen implements Kitchen {
+    private final Kitchen[] shards;
+    private final RoutingPolicy routing;
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    public ShardedKitchen(Kitchen[] shards, RoutingPolicy routing) {
+        this.shards = shards;
+        this.routing = routing;
+    }
+
+    private Kitchen route(Order order) {
+        int shard = routing.choose(shards.length, i -> shards[i].size(), waiterNumber(order.getWaiterName()),
+                sequence.getAndIncrement(), ThreadLocalRandom.current());
+        order.assignShard(shard);
+        return shards[shard];
+    }
+
+    // "Официант-3" → 2
+    private static int waiterNumber(String name) {
+        return name == null ? 0 : Integer.parseInt(name.substring(name.indexOf('-') + 1)) - 1;
+    }
+
+    public void put(Order order) throws InterruptedException {
+        route(order).put(order);
+    }
+
+    public boolean offer(Order order, long timeout, TimeUnit unit) throws InterruptedException {
+        return route(order).offer(order, timeout, unit);
+    }
+
+    public Order take(int chef, long timeout, TimeUnit unit) throws InterruptedException {
+        return shards[chef % shards.length].take(chef / shards.length, timeout, unit);
+    }
+
+    public int size() {
+        int total = 0;
+        for (Kitchen shard : shards) total += shard.size();
+        return total;
+    }
+
+    // повар chef работает на кухне chef % shards под номером chef / shards
+    public void setActiveChefs(int[] chefs) {
+        for (int i = 0; i < shards.length; i++) {
+            int count = 0;
+            for (int chef : chefs) if (chef % shards.length == i) count++;
+            int[] local = new int[count];
+            count = 0;
+            for (int chef : chefs) if (chef % shards.length == i) local[count++] = chef / shards.length;
+            shards[i].setActiveChefs(local);
+        }
+    }
+}
+
+// станции кухни: у каждой ограниченное число мест (сколько печей, грилей и т.д.)
+enum Station {
+    PREP("заготовка", 2),
+    GRILL("гриль", 2),
+    OVEN("печь", 1),
+    PLATING("подача", 2);
+
+    private final String title;
+    private final int defaultCapacity;
+
+    Station(String title, int defaultCapacity) {
+        this.title = title;
+        this.defaultCapacity = defaultCapacity;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public int getDefaultCapacity() {
+        return defaultCapacity;
+    }
+}
+
+// кухня по станциям: заказ идет шагами заготовка → гриль или печь → подача,
+// время готовки заказа делится между шагами. шаг начинается, только если на его станции есть место,
+// а любой свободный повар берет любой шаг - так разные заказы готовятся одновременно на разных станциях
+class KitchenStations {
+    private static final int PREP_PERCENT = 20;
+    private static final int PLATING_PERCENT = 15;
+    private static final int OVEN_COOK_TIME = 4; // с такого времени готовки блюдо идет в печь, быстрые - на гриль
+
+    private static final Station[] GRILL_ROUTE = {Station.PREP, Station.GRILL, Station.PLATING};
+    private static final Station[] OVEN_ROUTE = {Station.PREP, Station.OVEN, Station.PLATING};
+    // освободившийся повар сначала двигает заказы, которые ближе к подаче
+    private static final Station[] DOWNSTREAM_FIRST = {Station.PLATING, Station.OVEN, Station.GRILL, Station.PREP};
+
+    private final int[] capacity;
+    private final Semaphore[] slots;
+    private final Queue<Order>[] waiting;      // шаг можно начинать, ждет места на станции
+    private final Semaphore inProgress;        // заказов между заготовкой и подачей не больше, чем мест всего
+
+    private final LongAdder[] busyNanos;
+    private final LongAdder[] waitNanos;
+    private final LongAdder[] steps;
+
+    // свободные повара ждут здесь, пока на станциях что-то не освободится; version - сколько раз освобождалось
+    private final Object changed = new Object();
+    private long version;
+
+    // при автоподборе поваров то больше, то меньше - копим повара-наносекунды для средней загрузки
+    private final long createdAt = System.nanoTime();
+    private int chefs;
+    private long chefNanos;
+    private long chefsSince = createdAt;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public KitchenStations(int[] capacity, int chefs) {
+        this.capacity = capacity.clone();
+        this.chefs = chefs;
+        int count = Station.values().length;
+        slots = new Semaphore[count];
+        waiting = new Queue[count];
+        busyNanos = new LongAdder[count];
+        waitNanos = new LongAdder[count];
+        steps = new LongAdder[count];
+        int places = 0;
+        for (int i = 0; i < count; i++) {
+            slots[i] = new Semaphore(capacity[i]);
+            waiting[i] = new ConcurrentLinkedQueue<>();
+            busyNanos[i] = new LongAdder();
+            waitNanos[i] = new LongAdder();
+            steps[i] = new LongAdder();
+            places += capacity[i];
+        }
+        inProgress = new Semaphore(places);
+    }
+
+    public static int[] defaultCapacity() {
+        Station[] stations = Station.values();
+        int[] capacity = new int[stations.length];
+        for (Station station : stations) capacity[station.ordinal()] = station.getDefaultCapacity();
+        return capacity;
+    }
+
+    public static Station[] route(int cookTime) {
+        return cookTime >= OVEN_COOK_TIME ? OVEN_ROUTE : GRILL_ROUTE;
+    }
+
+    public static long stepMillis(int cookTime, Station station) {
+        long total = cookTime * 1000L;
+        switch (station) {
+            case PREP:
+                return total * PREP_PERCENT / 100;
+            case PLATING:
+                return total * PLATING_PERCENT / 100;
+            default:
+                return total - total * PREP_PERCENT / 100 - total * PLATING_PERCENT / 100;
+        }
+    }
+
+    public Station current(Order order) {
+        return route(order.getCookTime())[order.getStep()];
+    }
+
+    // следующий шаг, который можно начать прямо сейчас (место на станции уже занято за нами), null - нет такого
+    public Order nextStep() {
+        for (Station station : DOWNSTREAM_FIRST) {
+            int s = station.ordinal();
+            if (!waiting[s].isEmpty() && slots[s].tryAcquire()) {
+                Order order = waiting[s].poll();
+                if (order != null) {
+                    return order;
+                }
+                slots[s].release();
+            }
+        }
+        return null;
+    }
+
+    // место для нового заказа: на заготовке и среди заказов в работе; потом admit или cancelAdmit
+    public boolean tryAdmit() {
+        if (!inProgress.tryAcquire()) {
+            return false;
+        }
+        if (!slots[Station.PREP.ordinal()].tryAcquire()) {
+            inProgress.release();
+            return false;
+        }
+        return true;
+    }
+
+    public void cancelAdmit() {
+        slots[Station.PREP.ordinal()].release();
+        inProgress.release();
+        signal();
+    }
+
+    public synchronized void setChefs(int chefs) {
+        long now = System.nanoTime();
+        chefNanos += this.chefs * (now - chefsSince);
+        chefsSince = now;
+        this.chefs = chefs;
+    }
+
+    private synchronized double averageChefs() {
+        long now = System.nanoTime();
+        long span = now - createdAt;
+        return span > 0 ? (chefNanos + chefs * (now - chefsSince)) / (double) span : chefs;
+    }
+
+    public long version() {
+        synchronized (changed) {
+            return version;
+        }
+    }
+
+    // ждем, пока версия уйдет от seen (шаг встал в очередь или место освободилось), но не дольше timeout
+    public void awaitChange(long seen, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (changed) {
+            while (version == seen) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) {
+                    return;
+                }
+                changed.wait(left);
+            }
+        }
+    }
+
+    private void signal() {
+        synchronized (changed) {
+            version++;
+            changed.notifyAll();
+        }
+    }
+
+    public void admit(Order order, long now) {
+        order.toStep(0, now);
+    }
+
+    public void begin(Order order, long now) {
+        waitNanos[current(order).ordinal()].add(now - order.getStepQueuedAt());
+    }
+
+    // шаг закончен: место на станции свободно, заказ ждет следующую; true - это был последний шаг
+    public boolean finish(Order order, long busy, long now) {
+        Station[] route = route(order.getCookTime());
+        int s = route[order.getStep()].ordinal();
+        busyNanos[s].add(busy);
+        steps[s].increment();
+        slots[s].release();
+
+        int next = order.getStep() + 1;
+        if (next == route.length) {
+            inProgress.release();
+            signal();
+            return true;
+        }
+        order.toStep(next, now);
+        waiting[route[next].ordinal()].add(order);
+        signal();
+        return false;
+    }
+
+    public void printUtilization(long elapsedMillis) {
+        double elapsedNanos = TimeUnit.MILLISECONDS.toNanos(elapsedMillis);
+        System.out.println("\nСТАНЦИИ:");
+        System.out.printf("  %-10s %5s %7s %9s %14s %8s\n", "Станция", "мест", "шагов", "загрузка",
+                "ожидание, мс", "очередь");
+        String bottleneck = null;
+        double worst = -1;
+        long allBusy = 0;
+        for (Station station : Station.values()) {
+            int s = station.ordinal();
+            long done = steps[s].sum();
+            double load = busyNanos[s].sum() / (capacity[s] * elapsedNanos);
+            System.out.printf("  %-10s %5d %7d %8.0f%% %14.1f %8d\n", station.getTitle(), capacity[s], done,
+                    load * 100, done > 0 ? waitNanos[s].sum() / 1e6 / done : 0, waiting[s].size());
+            if (load > worst) {
+                worst = load;
+                bottleneck = station.getTitle();
+            }
+            allBusy += busyNanos[s].sum();
+        }
+        // каждый шаг занимает одного повара, так что и повара - такая же "станция" (мест - в среднем за запуск)
+        double chefs = averageChefs();
+        double chefLoad = allBusy / (chefs * elapsedNanos);
+        System.out.printf("  %-10s %5s %7s %8.0f%%\n", "повара",
+                chefs == Math.rint(chefs) ? String.valueOf((int) chefs) : String.format("%.1f", chefs), "", chefLoad * 100);
+        if (chefLoad > worst) {
+            worst = chefLoad;
+            bottleneck = "повара";
+        }
+        System.out.printf("  Узкое место: %s (загрузка %.0f%%)\n", bottleneck, worst * 100);
+    }
+}
+
+// официанты
+class Waiter implements Runnable {
+    private final String name;
+    private final int number; // для двоичного журнала
+    private final BlockingQueue<Order> customerQueue; // очередь от клиентов
+    private final Kitchen kitchen;  // кухня
+    private final OrderRegistry activeOrders; // заказы в работе
+    private final BlockingQueue<Order> readyOrders; // сюда повара кладут готовые заказы этого официанта
+    private volatile boolean working = true;
+    private volatile boolean busy = false; // несет заказ (для сэмплера)
+    // пишет только сам официант, volatile - чтобы метрики читали свежие значения из других потоков
+    private volatile int ordersTaken = 0;
+    private volatile int ordersDelivered = 0;
+    private final Statistics stats;
+    private int batchSize = 1; // сколько заказов официант забирает за раз
+    private final List<Order> pending = new ArrayList<>();
+    private int pendingNext; // первый из pending, кого еще не начали принимать
+    // сколько из пачки еще ждут приема - для других потоков; с запасом, чтобы не показать 0 раньше времени
+    private volatile int pendingLeft;
+    private OverloadPolicy overloadPolicy = OverloadPolicy.BLOCK;
+    private long maxWaitNanos;
+    private volatile boolean accepting = true; // false - уходит со смены, новых заказов не берет
+    private int inFlight; // принятые, но еще не доставленные заказы этого официанта
+    private OrderPool orderPool; // null - заказы не переиспользуются
+    private StaffProfile profile; // null - профилировщик выключен
+
+    public Waiter(String name, BlockingQueue<Order> customerQueue, Kitchen kitchen,
+                  OrderRegistry activeOrders, BlockingQueue<Order> readyOrders, Statistics stats) {
+        this.name = name;
+        this.number = BinaryJournal.actorNumber(name);
+        this.customerQueue = customerQueue;
+        this.kitchen = kitchen;
+        this.activeOrders = activeOrders;
+        this.readyOrders = readyOrders;
+        this.stats = stats;
+    }
+
+    public void stop() {
+        working = false;
+    }
+
+    // забрал из очереди, но принять не успел (остановили посреди пачки)
+    // читать после того, как поток официанта закончился
+    public List<Order> getUnaccepted() {
+        return new ArrayList<>(pending.subList(pendingNext, pending.size()));
+    }
+
+    // то же, но можно спрашивать на ходу
+    public int getPendingCount() {
+        return pendingLeft;
+    }
+
+    // уйти со смены: новых заказов не брать, свои уже принятые разнести до конца
+    public void retire() {
+        accepting = false;
+    }
+
+    // что делать с заказом, если кухня забита (и с клиентом, который ждал дольше maxWaitMillis)
+    public void setOverloadPolicy(OverloadPolicy overloadPolicy, long maxWaitMillis) {
+        this.overloadPolicy = overloadPolicy;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    // больше 1 - забираем сразу все, что накопилось (до batchSize заказов)
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    // законченные заказы возвращаем в пул
+    public void setOrderPool(OrderPool orderPool) {
+        this.orderPool = orderPool;
+    }
+
+    private void recycle(Order order) {
+        if (orderPool != null) {
+            orderPool.release(order);
+        }
+    }
+
+    public void setProfile(StaffProfile profile) {
+        this.profile = profile;
+    }
+
+    public StaffProfile getProfile() {
+        return profile;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isBusy() {
+        return busy;
+    }
+
+    public int getOrdersTaken() {
+        return ordersTaken;
+    }
+
+    public int getOrdersDelivered() {
+        return ordersDelivered;
+    }
+
+    public String getStats() {
+        return String.format("%s: принял %d, доставил %d", name, ordersTaken, ordersDelivered);
+    }
+
+    @Override
+    public void run() {
+        EventLog.staff(EventLog.STAFF_STARTED, name);
+        if (profile != null) {
+            profile.begin();
+        }
+
+        while (working && !Thread.currentThread().isInterrupted()) {
+            try {
+                // сначала принять заказ от клиента (из очереди клиентов)
+                if (accepting) {
+                    acceptOrderFromCustomer();
+                }
+
+                // потом доставить то, что повара уже отдали
+                deliverReadyOrders();
+                if (!accepting && inFlight == 0) {
+                    break;
+                }
+
+                // затем короткая пауза, но готовые заказы несем сразу
+                awaitReadyOrders(100);
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (profile != null) {
+            profile.end();
+        }
+        EventLog.staff(EventLog.STAFF_STOPPED, name);
+    }
+
+    // не private - их дергает бенчмарк PipelineBenchmark
+    void acceptOrderFromCustomer() throws InterruptedException {
+        // здесь мы пытаемся взять заказ из очереди клиентов
+        long since = StaffProfile.now(profile);
+        Order order = customerQueue.poll(50, TimeUnit.MILLISECONDS);
+        StaffProfile.add(profile, StaffProfile.POLL, since);
+        if (order == null) {
+            return;
+        }
+        accept(order);
+
+        if (batchSize > 1) {
+            // раз уж подошли - забираем и остальных ждущих
+            pending.clear();
+            pendingNext = 0;
+            pendingLeft = batchSize - 1; // заранее: из очереди клиентов они пропадут раньше, чем мы их посчитаем
+            customerQueue.drainTo(pending, batchSize - 1);
+            pendingLeft = pending.size();
+            while (pendingNext < pending.size()) {
+                deliverReadyOrders();
+                accept(pending.get(pendingNext++));
+                pendingLeft = pending.size() - pendingNext; // уже в activeOrders или отклонен
+            }
+            stats.recordWaiterBatch(1 + pending.size());
+        }
+    }
+
+    private void accept(Order order) throws InterruptedException {
+        long now = System.nanoTime();
+        long since = StaffProfile.now(profile);
+        if (overloadPolicy == OverloadPolicy.TIMEOUT && now - order.getCreatedAt() > maxWaitNanos) {
+            // клиент ждал слишком долго и ушел
+            stats.recordOrderTimedOut();
+            EventLog.order(EventLog.ORDER_TIMED_OUT, null, order.getId(), 0, null);
+            BinaryJournal.record(EventLog.ORDER_TIMED_OUT, now, order.getId(), number, 0);
+            recycle(order);
+            return;
+        }
+
+        busy = true;
+        // заказ теперь за этим официантом (копию не делаем - у клиента он больше не нужен)
+        order.markPickedUp(now);
+        stats.noteWaiterWait(now - order.getCreatedAt());
+        order.assignWaiter(name);
+        int orderId = order.getId();
+        ordersTaken++;
+        inFlight++;
+
+        EventLog.order(EventLog.ORDER_ACCEPTED, name, orderId, 0, null);
+        BinaryJournal.record(EventLog.ORDER_ACCEPTED, now, orderId, number, 0);
+
+        // добавить в активные заказы до кухни, иначе повар может успеть раньше
+        activeOrders.register(order);
+        StaffProfile.add(profile, StaffProfile.WORK, since);
+
+        // поместить заказ в очередь кухни
+        try {
+            if (sendToKitchen(order)) {
+                EventLog.order(EventLog.ORDER_SENT, name, orderId, 0, null);
+            } else {
+                inFlight--;
+            }
+        } finally {
+            busy = false;
+        }
+    }
+
+    // кухня забита - поступаем по политике, но готовые заказы разносим и пока ждем
+    private boolean sendToKitchen(Order order) throws InterruptedException {
+        if (kitchen.offer(order, 0, TimeUnit.NANOSECONDS)) {
+            return true;
+        }
+        switch (overloadPolicy) {
+            case REJECT:
+                activeOrders.remove(order.getId());
+                stats.recordOrderRejected();
+                EventLog.order(EventLog.ORDER_REJECTED, name, order.getId(), 0, null);
+                BinaryJournal.record(EventLog.ORDER_REJECTED, System.nanoTime(), order.getId(), number, 0);
+                recycle(order);
+                return false;
+            case DEGRADE:
+                if (order.getCookTime() > OverloadPolicy.DEGRADED_COOK_TIME) {
+                    order.degrade(OverloadPolicy.DEGRADED_COOK_TIME);
+                    stats.recordOrderDegraded();
+                    EventLog.order(EventLog.ORDER_DEGRADED, name, order.getId(), order.getCookTime(), null);
+                    BinaryJournal.record(EventLog.ORDER_DEGRADED, System.nanoTime(), order.getId(), number,
+                            order.getCookTime());
+                }
+                break;
+            default:
+                break;
+        }
+
+        while (true) {
+            long since = StaffProfile.now(profile);
+            boolean sent = kitchen.offer(order, 10, TimeUnit.MILLISECONDS);
+            StaffProfile.add(profile, StaffProfile.BLOCKED, since);
+            if (sent) {
+                break;
+            }
+            deliverReadyOrders();
+            busy = true;
+            if (overloadPolicy == OverloadPolicy.TIMEOUT
+                    && System.nanoTime() - order.getCreatedAt() > maxWaitNanos) {
+                activeOrders.remove(order.getId());
+                stats.recordOrderTimedOut();
+                EventLog.order(EventLog.ORDER_TIMED_OUT, null, order.getId(), 0, null);
+                BinaryJournal.record(EventLog.ORDER_TIMED_OUT, System.nanoTime(), order.getId(), number, 0);
+                recycle(order);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void deliverReadyOrders() {
+        // ничего не сканируем - повар сам кладет готовый заказ в нашу очередь
+        Order order;
+        while ((order = readyOrders.poll()) != null) {
+            busy = true;
+            deliver(order);
+            busy = false;
+        }
+    }
+
+    private void awaitReadyOrders(long millis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long left;
+        while ((left = deadline - System.nanoTime()) > 0) {
+            long since = StaffProfile.now(profile);
+            Order order = readyOrders.poll(left, TimeUnit.NANOSECONDS);
+            StaffProfile.add(profile, StaffProfile.POLL, since);
+            if (order != null) {
+                busy = true;
+                deliver(order);
+                busy = false;
+            }
+        }
+    }
+
+    private void deliver(Order order) {
+        long since = StaffProfile.now(profile);
+        activeOrders.remove(order.getId());
+
+        // доставляем заказ
+        order.markDelivered(System.nanoTime());
+        ordersDelivered++;
+        inFlight--;
+        stats.recordOrderCompleted(order);
+
+        EventLog.order(EventLog.ORDER_DELIVERED, name, order.getId(), 0, null);
+        BinaryJournal.record(EventLog.ORDER_DELIVERED, order.getDeliveredAt(), order.getId(), number, 0);
+        recycle(order);
+        StaffProfile.add(profile, StaffProfile.WORK, since);
+    }
+}
+
+// повора
+class Chef implements Runnable {
+    private final String name;
+    private final int number; // для двоичного журнала
+    private final int index; // номер повара на кухне (с нуля)
+    private final Kitchen kitchen;
+    private final Map<String, BlockingQueue<Order>> readyQueues; // готовые заказы по официантам
+    private volatile boolean working = true;
+    private volatile boolean busy = false; // готовит (для сэмплера)
+    private volatile int ordersCooked = 0; // пишет только сам повар
+    private final Statistics stats;
+
+    // готовим вместе заказы с одинаковым временем готовки
+    private int batchSize = 1;
+    private long batchDelayNanos;
+    private final List<Order> batch = new ArrayList<>();
+    private Order held; // не подошел к прошлой партии - с него начнем следующую
+
+    // кухня по станциям: готовим по шагу за раз (пакеты тогда не действуют)
+    private static final long IDLE_WAIT_MILLIS = 200;
+    private KitchenStations stations;
+    private StaffProfile profile; // null - профилировщик выключен
+
+    public Chef(String name, int index, Kitchen kitchen,
+                Map<String, BlockingQueue<Order>> readyQueues, Statistics stats) {
+        this.name = name;
+        this.number = BinaryJournal.actorNumber(name);
+        this.index = index;
+        this.kitchen = kitchen;
+        this.readyQueues = readyQueues;
+        this.stats = stats;
+    }
+
+    public void stop() {
+        working = false;
+    }
+
+    // до batchSize заказов за раз, похожие ждем не дольше delayMillis
+    public void setBatching(int batchSize, long delayMillis) {
+        this.batchSize = Math.max(1, batchSize);
+        this.batchDelayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    }
+
+    public void setStations(KitchenStations stations) {
+        this.stations = stations;
+    }
+
+    public void setProfile(StaffProfile profile) {
+        this.profile = profile;
+    }
+
+    public StaffProfile getProfile() {
+        return profile;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public boolean isBusy() {
+        return busy;
+    }
+
+    public int getOrdersCooked() {
+        return ordersCooked;
+    }
+
+    public String getStats() {
+        return String.format("%s: приготовил %d", name, ordersCooked);
+    }
+
+    @Override
+    public void run() {
+        EventLog.staff(EventLog.STAFF_STARTED, name);
+        if (profile != null) {
+            profile.begin();
+        }
+
+        while (working && !Thread.currentThread().isInterrupted()) {
+            try {
+                if (stations != null) {
+                    cookStep();
+                    continue;
+                }
+
+                // берем заказ из очереди кухни
+                Order order = held != null ? held : take(200, TimeUnit.MILLISECONDS);
+                held = null;
+
+                if (order != null) {
+                    collectBatch(order);
+                    busy = true;
+                    try {
+                        cookBatch();
+                    } finally {
+                        busy = false;
+                    }
+                }
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        // ушли со смены - отложенный заказ возвращаем на кухню, чтобы его приготовил кто-то другой
+        if (held != null && !Thread.currentThread().isInterrupted()) {
+            long since = StaffProfile.now(profile);
+            try {
+                kitchen.put(held);
+                held = null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            StaffProfile.add(profile, StaffProfile.BLOCKED, since);
+        }
+        if (profile != null) {
+            profile.end();
+        }
+        EventLog.staff(EventLog.STAFF_STOPPED, name);
+    }
+
+    private Order take(long timeout, TimeUnit unit) throws InterruptedException {
+        long since = StaffProfile.now(profile);
+        try {
+            return kitchen.take(index, timeout, unit);
+        } finally {
+            StaffProfile.add(profile, StaffProfile.POLL, since);
+        }
+    }
+
+    // добираем к first заказы с тем же временем готовки, пока не истекла задержка
+    // первый неподходящий откладываем в held, чтобы не менять порядок на кухне
+    private void collectBatch(Order first) throws InterruptedException {
+        batch.clear();
+        batch.add(first);
+        if (batchSize == 1) {
+            return;
+        }
+        long deadline = System.nanoTime() + batchDelayNanos;
+        while (batch.size() < batchSize) {
+            Order next = take(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            if (next.getCookTime() != first.getCookTime()) {
+                held = next;
+                break;
+            }
+            batch.add(next);
+        }
+        stats.recordCookBatch(batch.size(), first.getCookTime());
+    }
+
+    // один шаг на станции: сначала начатые заказы, а если ни одному шагу нет места - новый заказ с кухни
+    private void cookStep() throws InterruptedException {
+        long seen = stations.version();
+        Order order = stations.nextStep();
+        if (order == null) {
+            if (!stations.tryAdmit()) {
+                // ни шага, ни места под новый заказ - спим, пока на станциях что-то не освободится
+                long since = StaffProfile.now(profile);
+                stations.awaitChange(seen, IDLE_WAIT_MILLIS);
+                StaffProfile.add(profile, StaffProfile.POLL, since);
+                return;
+            }
+            // место есть - ждем заказ на кухне; шаги, которые встанут в очередь тем временем,
+            // заберет повар, который их закончил, или кто-то из ждущих на станциях
+            order = take(IDLE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            if (order == null) {
+                stations.cancelAdmit();
+                return;
+            }
+            long now = System.nanoTime();
+            startCooking(order, now);
+            stations.admit(order, now);
+        }
+
+        long start = System.nanoTime();
+        stations.begin(order, start);
+        busy = true;
+        try {
+            Thread.sleep(KitchenStations.stepMillis(order.getCookTime(), stations.current(order)));
+        } finally {
+            busy = false;
+            StaffProfile.add(profile, StaffProfile.WORK, start);
+        }
+        long end = System.nanoTime();
+        if (stations.finish(order, end - start, end)) {
+            serve(order, end);
+        }
+    }
+
+    private void startCooking(Order order, long start) {
+        EventLog.order(EventLog.COOK_STARTED, name, order.getId(), order.getCookTime(), order.getWaiterName());
+        BinaryJournal.record(EventLog.COOK_STARTED, start, order.getId(), number, order.getCookTime());
+        order.markKitchenStart(start);
+        stats.noteKitchenWait(start - order.getPickedUpAt());
+    }
+
+    private void cookBatch() {
+        long start = System.nanoTime();
+        for (Order order : batch) {
+            startCooking(order, start);
+        }
+
+        try {
+            Thread.sleep(batch.get(0).getCookTime() * 1000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            StaffProfile.add(profile, StaffProfile.WORK, start);
+        }
+
+        long cooked = System.nanoTime();
+        for (Order order : batch) {
+            if (!serve(order, cooked)) {
+                return;
+            }
+        }
+    }
+
+    // false - прервали, пока ждали место у официанта
+    private boolean serve(Order order, long cooked) {
+        order.markCooked(cooked);
+        ordersCooked++;
+
+        // помечаем заказ как готовый
+        order.setReady();
+
+        EventLog.order(EventLog.COOK_DONE, name, order.getId(), 0, order.getWaiterName());
+        BinaryJournal.record(EventLog.COOK_DONE, cooked, order.getId(), number, 0);
+
+        // сразу отдаем заказ его официанту
+        BlockingQueue<Order> ready = readyQueues.get(order.getWaiterName());
+        if (ready == null) {
+            // официанта нет - чужому не отдаем (он не знает этот заказ), но и молча не теряем
+            stats.recordOrderLost();
+            EventLog.order(EventLog.ORDER_LOST, name, order.getId(), 0, order.getWaiterName());
+            BinaryJournal.record(EventLog.ORDER_LOST, System.nanoTime(), order.getId(), number, 0);
+            return true;
+        }
+        if (!ready.offer(order)) {
+            // очередь официанта ограничена (пул заказов) - ждем, пока он разнесет
+            long since = StaffProfile.now(profile);
+            try {
+                ready.put(order);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                StaffProfile.add(profile, StaffProfile.BLOCKED, since);
+            }
+        }
+        return true;
+    }
+}
+
+// главный класс с меню (похожее делала и в прошлых лабах)
+public class RestaurantSystem {
+    private static final Scanner scanner = new Scanner(System.in);
+
+    // ддефолтные настройки (константы)
+    private static final int DEFAULT_CHEFS = 3;
+    private static final int DEFAULT_WAITERS = 3;
+    private static final int DEFAULT_QUEUE = 10;
+
+    // текущие настройки (можно менять)
+    private static int chefCount = DEFAULT_CHEFS;
+    private static int waiterCount = DEFAULT_WAITERS;
+    private static int queueSize = DEFAULT_QUEUE;
+    private static ExecutionMode executionMode = ExecutionMode.PLATFORM;
+    private static QueueType queueType = QueueType.LINKED;
+    private static KitchenMode kitchenMode = KitchenMode.SHARED;
+    private static int batchSize = 1;
+    private static int batchDelayMillis = 0;
+    private static KitchenDiscipline kitchenDiscipline = KitchenDiscipline.FIFO;
+    private static OverloadPolicy overloadPolicy = OverloadPolicy.BLOCK;
+    private static int maxWaitMillis = 30_000;
+    private static boolean autoscale = false;
+    private static int minChefs = 1;
+    private static int maxChefs = 10;
+    private static int minWaiters = 1;
+    private static int maxWaiters = 10;
+    private static int autoscaleCooldownSeconds = 5;
+    private static int autoscaleTargetWaitMillis = 2000;
+    private static int shards = 1;
+    private static RoutingPolicy routingPolicy = RoutingPolicy.ROUND_ROBIN;
+    private static boolean pooledOrders = false;
+    private static String journalPath = null; // двоичный журнал заказов, null - не пишем
+    private static long seed = 0;              // 0 - каждый запуск со своим зерном
+    private static boolean metrics = false;    // JMX и HTTP во время запуска
+    private static int metricsPort = 9404;     // 0 - только JMX
+    private static int shutdownDrainSeconds = 0; // 0 - останавливаемся сразу
+    private static int[] stationCapacity;        // null - повар готовит заказ целиком
+    private static boolean profiling = false;
+    private static int sampleIntervalMillis = 0;
+    private static String samplesPath = "samples.csv";
+
+    // поток клиентов
+    private static ArrivalModel arrivalModel = ArrivalModel.UNIFORM;
+    private static double arrivalRate = 0.5;  // клиентов в секунду (Пуассон)
+    private static double burstRate = 2.0;    // в наплыв
+    private static double quietRate = 0.2;    // в затишье
+    private static int burstSeconds = 20;
+    private static int quietSeconds = 40;
+    private static String tracePath = "arrivals.txt";
+    private static String replayPath = "journal.bin";
+
+    public static void main(String[] args) {
+        // если передали аргументы - запускаем без меню
+        if (args.length > 0) {
+            runCommand(args);
+            return;
+        }
+
+        System.out.println("Привет! Давайте запустим симуляцию вместе!");
+        while (true) {
+            showMainMenu();
+            int choice = getIntInput("Выберите режим: ", 1, 7);
+
+            switch (choice) {
+                case 1:
+                    runSimulation("Быстрая симуляция", 15);
+                    break;
+                case 2:
+                    runSimulation("Средняя симуляция", 30);
+                    break;
+                case 3:
+                    runSimulation("Длительная симуляция", 60);
+                    break;
+                case 4:
+                    runOrderCountSimulation();
+                    break;
+                case 5:
+                    runVirtualTimeSimulation();
+                    break;
+                case 6:
+                    showSettingsMenu();
+                    break;
+                case 7:
+                    System.out.println("Выход из программы");
+                    scanner.close();
+                    return;
+            }
+
+            System.out.print("\n Пожалйста нажмите Enter для продолжения!");
+            scanner.nextLine();
+        }
+    }
+
+    private static void runCommand(String[] args) {
+        switch (args[0]) {
+            case "bench-registry":
+                RegistryBenchmark.run(new int[]{64, 128, 256}, 2);
+                RegistryBenchmark.lookups(4096);
+                break;
+            case "scale-report":
+                ActorScaleReport.run(parseCounts(args, new int[]{1000, 5000, 10000}));
+                break;
+            case "bench":
+                PipelineBenchmark.run(parseCounts(args, new int[]{500})[0]);
+                break;
+            case "sweep":
+                ParameterSweep.run(Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "bench-arrivals":
+                PipelineBenchmark.arrivals(parseCounts(args, new int[]{200_000})[0], 3);
+                break;
+            case "journal-stats":
+                if (args.length < 2) {
+                    System.out.println("Укажите файл журнала: journal-stats journal.bin");
+                } else {
+                    JournalAnalyzer.run(args[1]);
+                }
+                break;
+            case "bench-alloc":
+                PipelineBenchmark.allocation(parseCounts(args, new int[]{2000})[0]);
+                break;
+            case "bench-kitchen":
+                PipelineBenchmark.kitchen(parseCounts(args, new int[]{2, 8, 32, 128, 256}), 1000);
+                break;
+            case "bench-flow":
+                PipelineBenchmark.flow(parseCounts(args, new int[]{4, 64, 256}), 20);
+                break;
+            default:
+                System.out.println("Неизвестная команда: " + args[0]);
+                System.out.println("Доступные команды: bench-registry, scale-report [кол-во...], bench [мс на замер], bench-arrivals [клиентов/сек],"
+                        + " bench-kitchen [кол-во поваров...], bench-alloc [мс на замер], bench-flow [персонал...],"
+                        + " journal-stats файл");
+                ParameterSweep.printUsage();
+        }
+    }
+
+    // числа после имени команды, если их не передали - берем стандартные
+    private static int[] parseCounts(String[] args, int[] defaults) {
+        if (args.length < 2) {
+            return defaults;
+        }
+        int[] counts = new int[args.length - 1];
+        for (int i = 1; i < args.length; i++) {
+            counts[i - 1] = Integer.parseInt(args[i]);
+        }
+        return counts;
+    }
+
+    private static void showMainMenu() {
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("           СИМУЛЯЦИЯ РЕСТОРАНА");
+        System.out.println("=".repeat(50));
+        System.out.println("Текущие параметры: Повара: " + chefCount +
+                ", Официанты: " + waiterCount + ", Очередь: " + queueSize);
+        System.out.println("\n1. Быстрая симуляция (15 секунд)");
+        System.out.println("2. Средняя симуляция (30 секунд)");
+        System.out.println("3. Длительная симуляция (60 секунд)");
+        System.out.println("4. Режим по количеству заказов");
+        System.out.println("5. Симуляция в виртуальном времени");
+        System.out.println("6. НАСТРОЙКИ ПАРАМЕТРОВ");
+        System.out.println("7. Выход");
+        System.out.println();
+    }
+
+    private static void showSettingsMenu() {
+        int oldChefCount = chefCount;
+        int oldWaiterCount = waiterCount;
+        int oldQueueSize = queueSize;
+
+        while (true) {
+            System.out.println("\n" + "=".repeat(50));
+            System.out.println("           НАСТРОЙКИ ПАРАМЕТРОВ");
+            System.out.println("=".repeat(50));
+            System.out.println("Текущие значения:");
+            System.out.println("1. Количество поваров: " + chefCount);
+            System.out.println("2. Количество официантов: " + waiterCount);
+            System.out.println("3. Размер очереди: " + queueSize);
+            System.out.println("\n4. Изменить количество поваров");
+            System.out.println("5. Изменить количество официантов");
+            System.out.println("6. Изменить размер очереди");
+            System.out.println("7. Сбросить к стандартным (" + DEFAULT_CHEFS + ", " +
+                    DEFAULT_WAITERS + ", " + DEFAULT_QUEUE + ")");
+            System.out.println("8. Сохранить и вернуться в меню");
+            System.out.println("9. Отменить изменения");
+            System.out.println("10. Дополнительные настройки (применяются сразу)");
+            System.out.println("11. Прогноз по теории очередей (и сверка с симуляцией)");
+            System.out.println();
+
+            int choice = getIntInput("Выберите пункт: ", 1, 11);
+
+            switch (choice) {
+                case 1:
+                    System.out.println("Текущее количество поваров: " + chefCount);
+                    break;
+                case 2:
+                    System.out.println("Текущее количество официантов: " + waiterCount);
+                    break;
+                case 3:
+                    System.out.println("Текущий размер очереди: " + queueSize);
+                    break;
+                case 4:
+                    System.out.print("Введите новое количество поваров: ");
+                    chefCount = scanner.nextInt();
+                    scanner.nextLine();
+                    System.out.println("Количество поваров изменено на: " + chefCount);
+                    break;
+                case 5:
+                    System.out.print("Введите новое количество официантов: ");
+                    waiterCount = scanner.nextInt();
+                    scanner.nextLine();
+                    System.out.println("Количество официантов изменено на: " + waiterCount);
+                    break;
+                case 6:
+                    System.out.print("Введите новый размер очереди: ");
+                    queueSize = scanner.nextInt();
+                    scanner.nextLine();
+                    System.out.println("Размер очереди изменен на: " + queueSize);
+                    break;
+                case 7:
+                    chefCount = DEFAULT_CHEFS;
+                    waiterCount = DEFAULT_WAITERS;
+                    queueSize = DEFAULT_QUEUE;
+                    System.out.println("\nНастройки сброшены к стандартным:");
+                    System.out.println("Повара: " + chefCount + ", Официанты: " + waiterCount +
+                            ", Очередь: " + queueSize);
+                    break;
+                case 8:
+                    System.out.println("\nНастройки сохранены!");
+                    return;
+                case 9:
+                    chefCount = oldChefCount;
+                    waiterCount = oldWaiterCount;
+                    queueSize = oldQueueSize;
+                    System.out.println("\nИзменения отменены!");
+                    return;
+                case 10:
+                    showAdvancedSettingsMenu();
+                    break;
+                case 11:
+                    long planSeed = nextSeed();
+                    CapacityPlanner.run(chefCount, waiterCount, queueSize, shards, routingPolicy, overloadPolicy,
+                            maxWaitMillis, kitchenDiscipline, createArrivalProcess(new Random(planSeed + 1)),
+                            createArrivalProcess(new Random(planSeed)), PLAN_CHECK_HOURS);
+                    break;
+            }
+        }
+    }
+
+    // сколько виртуальных часов гоняем симуляцию для сверки с прогнозом (меньше секунды реального времени)
+    private static final int PLAN_CHECK_HOURS = 8;
+
+    private static void showAdvancedSettingsMenu() {
+        while (true) {
+            System.out.println("\n" + "=".repeat(50));
+            System.out.println("           ДОПОЛНИТЕЛЬНЫЕ НАСТРОЙКИ");
+            System.out.println("=".repeat(50));
+            System.out.println("1. Режим потоков: " + executionMode.getTitle());
+            System.out.println("2. Вывод событий: " + EventLog.getLevel().getTitle());
+            System.out.println("3. Журнал событий: " +
+                    (EventLog.getFilePath() != null ? "файл " + EventLog.getFilePath() : "консоль"));
+            System.out.println("4. Тип очередей: " + queueType.getTitle());
+            System.out.println("5. Временной ряд очередей: " + (sampleIntervalMillis > 0
+                    ? "каждые " + sampleIntervalMillis + " мс → " + samplesPath : "выключен"));
+            System.out.println("6. Поток клиентов: " + describeArrivals());
+            System.out.println("7. Кухня: " + kitchenMode.getTitle());
+            System.out.println("8. Пакеты: " + (batchSize > 1
+                    ? "до " + batchSize + " заказов, ожидание " + batchDelayMillis + " мс" : "выключены"));
+            System.out.println("9. Порядок на кухне: " + kitchenDiscipline.getTitle()
+                    + (kitchenDiscipline != KitchenDiscipline.FIFO ? " (всегда общая очередь)" : ""));
+            System.out.println("10. При перегрузке: " + overloadPolicy.getTitle()
+                    + (overloadPolicy == OverloadPolicy.TIMEOUT ? " (" + maxWaitMillis + " мс)" : ""));
+            System.out.println("11. Автоподбор персонала: " + (autoscale
+                    ? "повара " + minChefs + ".." + maxChefs + ", официанты " + minWaiters + ".." + maxWaiters
+                    + ", не чаще раза в " + autoscaleCooldownSeconds + " сек, цель ожидания "
+                    + autoscaleTargetWaitMillis + " мс" : "выключен"));
+            System.out.println("12. Кухни: " + (shards > 1
+                    ? shards + ", маршрутизация " + routingPolicy.getTitle() : "одна"));
+            System.out.println("13. Пул заказов (без выделений памяти): " + (pooledOrders ? "вкл" : "выкл"));
+            System.out.println("14. Двоичный журнал заказов: " + (journalPath != null ? journalPath : "выкл"));
+            System.out.println("15. Зерно случайности: " + (seed != 0 ? String.valueOf(seed) : "новое каждый раз"));
+            System.out.println("16. Живые метрики: " + (!metrics ? "выкл"
+                    : "JMX" + (metricsPort > 0 ? " + http://localhost:" + metricsPort + "/metrics" : "")));
+            System.out.println("17. Остановка: " + (shutdownDrainSeconds > 0
+                    ? "доделать начатое (до " + shutdownDrainSeconds + " сек)" : "сразу"));
+            System.out.println("18. Станции на кухне: " + describeStations());
+            System.out.println("19. Профиль персонала и блокировок: " + (profiling ? "вкл" : "выкл"));
+            System.out.println("20. Назад");
+            System.out.println();
+
+            int choice = getIntInput("Выберите пункт: ", 1, 20);
+
+            switch (choice) {
+                case 1:
+                    executionMode = executionMode == ExecutionMode.PLATFORM
+                            ? ExecutionMode.VIRTUAL : ExecutionMode.PLATFORM;
+                    if (executionMode == ExecutionMode.VIRTUAL && !ExecutionMode.virtualThreadsSupported()) {
+                        System.out.println("Внимание: в этой JVM нет виртуальных потоков (нужна Java 21+)," +
+                                " будут использованы обычные");
+                    }
+                    System.out.println("Режим потоков изменен на: " + executionMode.getTitle());
+                    break;
+                case 2:
+                    EventLog.Level[] levels = EventLog.Level.values();
+                    EventLog.setLevel(levels[(EventLog.getLevel().ordinal() + 1) % levels.length]);
+                    System.out.println("Вывод событий изменен на: " + EventLog.getLevel().getTitle());
+                    break;
+                case 3:
+                    System.out.print("Введите путь к файлу (пусто - консоль): ");
+                    String path = scanner.nextLine().trim();
+                    try {
+                        EventLog.setFile(path.isEmpty() ? null : path);
+                        System.out.println("Журнал событий: " + (path.isEmpty() ? "консоль" : path));
+                    } catch (IOException e) {
+                        System.out.println("Не удалось открыть файл: " + e.getMessage());
+                    }
+                    break;
+                case 4:
+                    QueueType[] types = QueueType.values();
+                    queueType = types[(queueType.ordinal() + 1) % types.length];
+                    System.out.println("Тип очередей изменен на: " + queueType.getTitle());
+                    break;
+                case 5:
+                    sampleIntervalMillis = getIntInput("Интервал записи в мс (0 - выключить): ", 0, 60_000);
+                    if (sampleIntervalMillis > 0) {
+                        System.out.print("Файл (.csv или .json, пусто - " + samplesPath + "): ");
+                        String file = scanner.nextLine().trim();
+                        if (!file.isEmpty()) {
+                            samplesPath = file;
+                        }
+                    }
+                    break;
+                case 6:
+                    chooseArrivalModel();
+                    break;
+                case 7:
+                    kitchenMode = kitchenMode == KitchenMode.SHARED
+                            ? KitchenMode.WORK_STEALING : KitchenMode.SHARED;
+                    System.out.println("Кухня: " + kitchenMode.getTitle());
+                    break;
+                case 8:
+                    batchSize = getIntInput("Сколько заказов за раз (1 - выключить): ", 1, Statistics.MAX_BATCH);
+                    if (batchSize > 1) {
+                        batchDelayMillis = getIntInput("Сколько повар ждет похожие заказы, мс: ", 0, 10_000);
+                    }
+                    break;
+                case 9:
+                    KitchenDiscipline[] disciplines = KitchenDiscipline.values();
+                    kitchenDiscipline = disciplines[(kitchenDiscipline.ordinal() + 1) % disciplines.length];
+                    System.out.println("Порядок на кухне: " + kitchenDiscipline.getTitle());
+                    break;
+                case 10:
+                    OverloadPolicy[] policies = OverloadPolicy.values();
+                    for (int i = 0; i < policies.length; i++) {
+                        System.out.println((i + 1) + ". " + policies[i].getTitle());
+                    }
+                    overloadPolicy = policies[getIntInput("Выберите политику: ", 1, policies.length) - 1];
+                    if (overloadPolicy == OverloadPolicy.TIMEOUT) {
+                        maxWaitMillis = getIntInput("Сколько клиент готов ждать, мс: ", 1, 3_600_000);
+                    }
+                    break;
+                case 11:
+                    autoscale = getIntInput("Автоподбор (1 - включить, 0 - выключить): ", 0, 1) == 1;
+                    if (autoscale) {
+                        // текущие количества из основных настроек - это состав на старте
+                        // не меньше, чем кухонь: на каждой нужен хотя бы один повар
+                        minChefs = getIntInput("Минимум поваров: ", Math.max(1, Math.min(shards, chefCount)), chefCount);
+                        maxChefs = getIntInput("Максимум поваров: ", chefCount, 1000);
+                        minWaiters = getIntInput("Минимум официантов: ", 1, waiterCount);
+                        maxWaiters = getIntInput("Максимум официантов: ", waiterCount, 1000);
+                        autoscaleCooldownSeconds = getIntInput("Не менять состав чаще, чем раз в (сек): ", 1, 3600);
+                        autoscaleTargetWaitMillis = getIntInput("Допустимое ожидание на этапе (мс): ", 1, 600_000);
+                    }
+                    break;
+                case 12:
+                    shards = getIntInput("Сколько кухонь (не больше, чем поваров): ", 1, Math.max(1, chefCount));
+                    minChefs = Math.max(minChefs, shards);
+                    if (shards > 1) {
+                        RoutingPolicy[] routings = RoutingPolicy.values();
+                        for (int i = 0; i < routings.length; i++) {
+                            System.out.println((i + 1) + ". " + routings[i].getTitle());
+                        }
+                        routingPolicy = routings[getIntInput("Выберите маршрутизацию: ", 1, routings.length) - 1];
+                    }
+                    break;
+                case 13:
+                    pooledOrders = !pooledOrders;
+                    if (pooledOrders && queueType == QueueType.LINKED) {
+                        System.out.println("Совет: LinkedBlockingQueue выделяет узел на каждый заказ,"
+                                + " для нуля выделений выберите кольцевой буфер");
+                    }
+                    break;
+                case 14:
+                    System.out.print("Введите путь к файлу (пусто - выключить): ");
+                    String journal = scanner.nextLine().trim();
+                    journalPath = journal.isEmpty() ? null : journal;
+                    break;
+                case 15:
+                    seed = getLongInput("Введите зерно (0 - новое каждый раз): ");
+                    break;
+                case 16:
+                    metrics = !metrics;
+                    if (metrics) {
+                        metricsPort = getIntInput("Порт для Prometheus (0 - только JMX): ", 0, 65_535);
+                    }
+                    break;
+                case 17:
+                    shutdownDrainSeconds = getIntInput("Сколько секунд доделывать заказы после конца (0 - сразу): ",
+                            0, 3600);
+                    break;
+                case 18:
+                    if (getIntInput("Готовить по станциям (1 - да, 0 - целиком одним поваром): ", 0, 1) == 0) {
+                        stationCapacity = null;
+                        break;
+                    }
+                    stationCapacity = KitchenStations.defaultCapacity();
+                    for (Station station : Station.values()) {
+                        stationCapacity[station.ordinal()] = getIntInput(
+                                "Мест на станции \"" + station.getTitle() + "\": ", 1, 1000);
+                    }
+                    break;
+                case 19:
+                    profiling = !profiling;
+                    break;
+                case 20:
+                    return;
+            }
+        }
+    }
+
+    private static String describeStations() {
+        if (stationCapacity == null) {
+            return "выкл (повар готовит заказ целиком)";
+        }
+        StringBuilder line = new StringBuilder();
+        for (Station station : Station.values()) {
+            line.append(line.length() > 0 ? ", " : "").append(station.getTitle())
+                    .append(' ').append(stationCapacity[station.ordinal()]);
+        }
+        return line + (batchSize > 1 ? " (пакеты не действуют)" : "");
+    }
+
+    // зерно для очередного запуска: заданное в настройках или новое (его печатаем, чтобы запуск можно было повторить)
+    private static long nextSeed() {
+        long next = seed;
+        while (next == 0) {
+            next = new Random().nextLong();
+        }
+        return next;
+    }
+
+    // журнал открываем перед стартом симуляции, закрываем после остановки
+    private static void openJournal(long runSeed) {
+        if (journalPath == null) {
+            return;
+        }
+        try {
+            BinaryJournal.open(journalPath, runSeed, chefCount, waiterCount, queueSize);
+        } catch (IOException e) {
+            System.out.println("Не удалось открыть журнал " + journalPath + ": " + e.getMessage());
+        }
+    }
+
+    // null - метрики выключены или не запустились
+    private static RestaurantMetrics startMetrics(RestaurantSimulation sim, Statistics stats) {
+        if (!metrics) {
+            return null;
+        }
+        RestaurantMetrics live = new RestaurantMetrics(sim, stats);
+        try {
+            live.start(metricsPort);
+            System.out.println("Метрики: JMX " + RestaurantMetrics.DOMAIN + ":type=Restaurant"
+                    + (metricsPort > 0 ? ", http://localhost:" + metricsPort + "/metrics" : ""));
+            return live;
+        } catch (IOException e) {
+            System.out.println("Не удалось запустить метрики: " + e.getMessage());
+            live.stop();
+            return null;
+        }
+    }
+
+    private static void closeJournal() {
+        String path = BinaryJournal.getPath();
+        long records = BinaryJournal.close();
+        if (records >= 0) {
+            System.out.println("Двоичный журнал: " + path + ", записей " + records
+                    + " (разбор: java RestaurantSystem journal-stats " + path + ")");
+        }
+    }
+
+    // создаем симуляцию с текущими настройками
+    private static RestaurantSimulation createSimulation(Statistics stats, long runSeed) {
+        RestaurantSimulation sim = new RestaurantSimulation(stats, chefCount, waiterCount, queueSize);
+        sim.setExecutionMode(executionMode);
+        sim.setQueueType(queueType);
+        sim.setKitchenMode(kitchenMode);
+        sim.setBatching(batchSize, batchDelayMillis);
+        sim.setKitchenDiscipline(kitchenDiscipline);
+        sim.setOverloadPolicy(overloadPolicy, maxWaitMillis);
+        sim.setSharding(shards, routingPolicy);
+        sim.setOrderPooling(pooledOrders);
+        sim.setStations(stationCapacity);
+        sim.setProfiling(profiling);
+        if (autoscale) {
+            sim.setAutoscaling(minChefs, maxChefs, minWaiters, maxWaiters,
+                    autoscaleCooldownSeconds * 1000, autoscaleTargetWaitMillis);
+        }
+        sim.setSampler(sampleIntervalMillis, samplesPath);
+        sim.setArrivalProcess(createArrivalProcess(new Random(runSeed)));
+        return sim;
+    }
+
+    private static ArrivalProcess createArrivalProcess(Random random) {
+        switch (arrivalModel) {
+            case POISSON:
+                return new PoissonArrivals(random, arrivalRate);
+            case BURSTY:
+                return new BurstyArrivals(random, burstRate, quietRate, burstSeconds, quietSeconds);
+            case TRACE:
+                try {
+                    return new TraceArrivals(tracePath);
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("Не удалось прочитать " + tracePath + ": " + e.getMessage()
+                            + ", клиенты будут приходить как обычно");
+                    return new UniformArrivals(random, 1000, 3000);
+                }
+            case REPLAY:
+                try {
+                    return new JournalArrivals(replayPath);
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("Не удалось прочитать журнал " + replayPath + ": " + e.getMessage()
+                            + ", клиенты будут приходить как обычно");
+                    return new UniformArrivals(random, 1000, 3000);
+                }
+            default:
+                return new UniformArrivals(random, 1000, 3000);
+        }
+    }
+
+    private static String describeArrivals() {
+        switch (arrivalModel) {
+            case POISSON:
+                return arrivalModel.getTitle() + ", " + arrivalRate + "/сек";
+            case BURSTY:
+                return arrivalModel.getTitle() + ", " + burstRate + "/сек " + burstSeconds + " сек, "
+                        + quietRate + "/сек " + quietSeconds + " сек";
+            case TRACE:
+                return arrivalModel.getTitle() + " " + tracePath;
+            case REPLAY:
+                return arrivalModel.getTitle() + " " + replayPath;
+            default:
+                return arrivalModel.getTitle();
+        }
+    }
+
+    private static void chooseArrivalModel() {
+        ArrivalModel[] models = ArrivalModel.values();
+        for (int i = 0; i < models.length; i++) {
+            System.out.println((i + 1) + ". " + models[i].getTitle());
+        }
+        arrivalModel = models[getIntInput("Выберите модель: ", 1, models.length) - 1];
+
+        switch (arrivalModel) {
+            case POISSON:
+                arrivalRate = getDoubleInput("Клиентов в секунду: ", 0.001, 10_000_000);
+                break;
+            case BURSTY:
+                burstRate = getDoubleInput("Клиентов в секунду в наплыв: ", 0.001, 10_000_000);
+                burstSeconds = getIntInput("Длительность наплыва (сек): ", 1, 86_400);
+                quietRate = getDoubleInput("Клиентов в секунду в затишье: ", 0, 10_000_000);
+                quietSeconds = getIntInput("Длительность затишья (сек): ", 1, 86_400);
+                break;
+            case TRACE:
+                System.out.print("Файл записи (строки \"время_мс время_готовки_сек\", пусто - "
+                        + tracePath + "): ");
+                String file = scanner.nextLine().trim();
+                if (!file.isEmpty()) {
+                    tracePath = file;
+                }
+                break;
+            case REPLAY:
+                System.out.print("Двоичный журнал прошлого запуска (пусто - " + replayPath + "): ");
+                String journal = scanner.nextLine().trim();
+                if (!journal.isEmpty()) {
+                    replayPath = journal;
+                }
+                break;
+            default:
+                break;
+        }
+        System.out.println("Поток клиентов: " + describeArrivals());
+    }
+
+    private static void runSimulation(String mode, int durationSeconds) {
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("ЗАПУСК: " + mode);
+        System.out.println("Параметры: Повара: " + chefCount + ", Официанты: " + waiterCount + ", Очередь: " + queueSize);
+        System.out.println("Потоки: " + executionMode.getTitle());
+        System.out.println("Поток клиентов: " + describeArrivals());
+        System.out.println("Длительность: " + durationSeconds + " секунд");
+        long runSeed = nextSeed();
+        System.out.println("Зерно случайности: " + runSeed);
+        System.out.println("=".repeat(50));
+
+        Statistics stats = new Statistics();
+        stats.start();
+
+        RestaurantSimulation sim = createSimulation(stats, runSeed);
+        openJournal(runSeed);
+        sim.start();
+        RestaurantMetrics live = startMetrics(sim, stats);
+
+        try {
+            Thread.sleep(durationSeconds * 1000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (live != null) {
+            live.stop();
+        }
+        ShutdownReport shutdown = sim.stop(shutdownDrainSeconds * 1000L);
+        stats.stop();
+        closeJournal();
+        stats.printStats(mode, chefCount, waiterCount, queueSize);
+        shutdown.print();
+        sim.printPersonnelStats();
+        sim.exportSamples();
+    }
+
+    private static void runOrderCountSimulation() {
+        // 0 у генератора - поток без конца, тут нужна конечная цель
+        int orderCount = getIntInput("Введите количество заказов: ", 1, 10_000_000);
+        int timeoutSeconds = getIntInput("Сколько максимум ждать (сек): ", 1, 86_400);
+
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("ЗАПУСК: Режим по количеству заказов");
+        System.out.println("Параметры: Повара: " + chefCount + ", Официанты: " + waiterCount + ", Очередь: " + queueSize);
+        System.out.println("Цель: " + orderCount + " заказов");
+        long runSeed = nextSeed();
+        System.out.println("Зерно случайности: " + runSeed);
+        System.out.println("=".repeat(50));
+
+        Statistics stats = new Statistics();
+        stats.expectOrders(orderCount);
+        stats.start();
+
+        RestaurantSimulation sim = createSimulation(stats, runSeed);
+        sim.setOrderLimit(orderCount);
+        openJournal(runSeed);
+        sim.start();
+        RestaurantMetrics live = startMetrics(sim, stats);
+
+        // клиенты сами остановятся на orderCount, ждем последнюю доставку
+        boolean finished = false;
+        try {
+            finished = stats.awaitOrders(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (live != null) {
+            live.stop();
+        }
+        ShutdownReport shutdown = sim.stop(shutdownDrainSeconds * 1000L);
+        stats.stop();
+        closeJournal();
+
+        stats.printStats("По количеству заказов (" + orderCount + ")", chefCount, waiterCount, queueSize);
+        if (finished) {
+            System.out.printf("Все %d заказов закончены за %.3f сек\n", orderCount, stats.getMakespanNanos() / 1e9);
+        } else {
+            System.out.printf("За %d сек не закончены %d заказов из %d\n",
+                    timeoutSeconds, stats.getOrdersRemaining(), orderCount);
+        }
+        shutdown.print();
+        sim.printPersonnelStats();
+        sim.exportSamples();
+    }
+
+    private static void runVirtualTimeSimulation() {
+        int hours = getIntInput("Введите длительность смены в часах: ", 1, 24 * 30);
+
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("ЗАПУСК: Симуляция в виртуальном времени");
+        System.out.println("Параметры: Повара: " + chefCount + ", Официанты: " + waiterCount + ", Очередь: " + queueSize);
+        System.out.println("Длительность: " + hours + " ч. (виртуальных)");
+        System.out.println("Поток клиентов: " + describeArrivals());
+        long runSeed = nextSeed();
+        System.out.println("Зерно случайности: " + runSeed);
+        System.out.println("=".repeat(50));
+
+        Statistics stats = new Statistics();
+        VirtualTimeSimulation sim = new VirtualTimeSimulation(stats, chefCount, waiterCount, queueSize, runSeed);
+        sim.setArrivalProcess(createArrivalProcess(new Random(runSeed)));
+        sim.setKitchenDiscipline(kitchenDiscipline);
+        sim.setOverloadPolicy(overloadPolicy, maxWaitMillis);
+        sim.setSharding(shards, routingPolicy);
+        sim.setStations(stationCapacity);
+
+        long realStart = System.nanoTime();
+        sim.run(hours * 3600_000L);
+        long realMillis = (System.nanoTime() - realStart) / 1_000_000;
+
+        stats.printStats("Виртуальное время (" + hours + " ч.)", chefCount, waiterCount, queueSize);
+        sim.printPersonnelStats();
+        System.out.println("Реальное время расчета: " + realMillis + " мс");
+    }
+
+    // дробное число читаем строкой, чтобы и 0.5, и 0,5 подходили
+    private static double getDoubleInput(String prompt, double min, double max) {
+        while (true) {
+            System.out.print(prompt);
+            String line = scanner.nextLine().trim().replace(',', '.');
+            try {
+                double value = Double.parseDouble(line);
+                if (value >= min && value <= max) {
+                    return value;
+                }
+                System.out.printf("Введите число от %s до %s!\n", min, max);
+            } catch (NumberFormatException e) {
+                System.out.println("Введите число!");
+            }
+        }
+    }
+
+    // зерно - любое long, читаем строкой, чтобы мусор во вводе не ронял программу
+    private static long getLongInput(String prompt) {
+        while (true) {
+            System.out.print(prompt);
+            String line = scanner.nextLine().trim();
+            try {
+                return Long.parseLong(line);
+            } catch (NumberFormatException e) {
+                System.out.println("Введите целое число!");
+            }
+        }
+    }
+
+    private static int getIntInput(String prompt, int min, int max) {
+        int value;
+        while (true) {
+            System.out.print(prompt);
+            try {
+                value = scanner.nextInt();
+                if (value >= min && value <= max) {
+                    scanner.nextLine();
+                    return value;
+                }
+                System.out.printf("Введите число от %d до %d!\n", min, max);
+            } catch (InputMismatchException e) {
+                System.out.println("Введите целое число!");
+                scanner.nextLine();
+            }
+        }
+    }
+}
+
+// класс для управления симуляцией
+class RestaurantSimulation {
+    private final Statistics stats;
+    private final int chefCount;
+    private final int waiterCount;
+    private final int queueSize;
+    private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+    private QueueType queueType = QueueType.LINKED;
+    private KitchenMode kitchenMode = KitchenMode.SHARED;
+    private int batchSize = 1; // 1 - без пакетов
+    private int batchDelayMillis;
+    private KitchenDiscipline discipline = KitchenDiscipline.FIFO;
+    private OverloadPolicy overloadPolicy = OverloadPolicy.BLOCK;
+    private int maxWaitMillis;
+    private int shards = 1;
+    private RoutingPolicy routing = RoutingPolicy.ROUND_ROBIN;
+    private boolean pooledOrders;
+    private int[] stationCapacity; // null - повар готовит заказ целиком
+    private KitchenStations stations;
+    private boolean profiling;
+    private OrderPool orderPool;
+    private final AllocationCounter allocations = new AllocationCounter();
+    private long allocatedBytes = -1;
+    private int sampleIntervalMillis; // 0 - сэмплер выключен
+    private String samplesPath;
+    private ArrivalProcess arrivals;
+    private int orderLimit; // 0 - клиенты приходят, пока не остановим
+    private final OrderIdGenerator orderIds = new OrderIdGenerator();
+
+    private BlockingQueue<Order> customerQueue; // клиенты → официанты
+    private Kitchen kitchen;  // официанты → кухня
+    private OrderRegistry activeOrders;
+    private Map<String, BlockingQueue<Order>> readyQueues; // официант → его готовые заказы
+
+    private CustomerGenerator customerGenerator;
+    private Thread customerThread;
+
+    private ExecutorService chefPool;
+    private ThreadFactory threadFactory;
+    private List<Chef> chefs;          // все, кто выходил на смену (для статистики)
+    private List<Waiter> waiters;
+    private List<Thread> waiterThreads;
+    private final List<Chef> activeChefs = new ArrayList<>(); // сейчас на смене
+    private final BitSet chefSlots = new BitSet(); // номера на кухне, чей повар еще не вышел из run()
+    private int chefSlotCount;
+    private final List<Waiter> activeWaiters = new ArrayList<>();
+    private QueueSampler sampler;
+
+    // автоподбор персонала (null - состав фиксированный)
+    private int[] autoscaleLimits; // минимум/максимум поваров, минимум/максимум официантов
+    private int autoscaleCooldownMillis;
+    private int autoscaleTargetWaitMillis;
+    private StaffAutoscaler autoscaler;
+
+    public RestaurantSimulation(Statistics stats, int chefCount, int waiterCount,
+                                int queueSize) {
+        this.stats = stats;
+        this.chefCount = chefCount;
+        this.waiterCount = waiterCount;
+        this.queueSize = queueSize;
+    }
+
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    public void setQueueType(QueueType queueType) {
+        this.queueType = queueType;
+    }
+
+    public void setArrivalProcess(ArrivalProcess arrivals) {
+        this.arrivals = arrivals;
+    }
+
+    public void setKitchenMode(KitchenMode kitchenMode) {
+        this.kitchenMode = kitchenMode;
+    }
+
+    // кроме FIFO все порядки работают через одну общую очередь с приоритетами
+    public void setKitchenDiscipline(KitchenDiscipline discipline) {
+        this.discipline = discipline;
+    }
+
+    // повара и официанты добавляются и уходят по ходу работы в пределах min..max
+    public void setAutoscaling(int minChefs, int maxChefs, int minWaiters, int maxWaiters,
+                               int cooldownMillis, int targetWaitMillis) {
+        this.autoscaleLimits = new int[]{minChefs, maxChefs, minWaiters, maxWaiters};
+        this.autoscaleCooldownMillis = cooldownMillis;
+        this.autoscaleTargetWaitMillis = targetWaitMillis;
+    }
+
+    // maxWaitMillis нужен только для TIMEOUT
+    public void setOverloadPolicy(OverloadPolicy overloadPolicy, int maxWaitMillis) {
+        this.overloadPolicy = overloadPolicy;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    // shards кухонь (не больше, чем поваров), у каждой свои повара и очередь размером queueSize
+    public void setSharding(int shards, RoutingPolicy routing) {
+        this.shards = shards;
+        this.routing = routing;
+    }
+
+    // заказы берутся из пула и возвращаются в него, реестр и очереди готового - без выделений памяти
+    public void setOrderPooling(boolean pooledOrders) {
+        this.pooledOrders = pooledOrders;
+    }
+
+    // время каждого работника по видам (работа, ожидание работы, блокировка) и ожидание synchronized
+    public void setProfiling(boolean profiling) {
+        this.profiling = profiling;
+    }
+
+    // заказы готовятся по шагам на станциях, capacity - мест на каждой станции (по порядку Station)
+    public void setStations(int[] capacity) {
+        this.stationCapacity = capacity;
+    }
+
+    // официанты забирают до batchSize заказов за раз, повара готовят столько же одинаковых вместе
+    public void setBatching(int batchSize, int delayMillis) {
+        this.batchSize = batchSize;
+        this.batchDelayMillis = delayMillis;
+    }
+
+    public int getOrdersGenerated() {
+        return orderIds.getTotal();
+    }
+
+    public void setOrderLimit(int orderLimit) {
+        this.orderLimit = orderLimit;
+    }
+
+    // каждые intervalMillis записываем очереди и занятость персонала, после работы сохраняем в файл
+    public void setSampler(int intervalMillis, String path) {
+        this.sampleIntervalMillis = intervalMillis;
+        this.samplesPath = path;
+    }
+
+    public void start() {
+        orderIds.reset();
+        allocations.start();
+        if (profiling && !StaffProfile.enableContentionMonitoring()) {
+            System.out.println("JVM не считает ожидание synchronized, в профиле будет только время работников");
+        }
+        threadFactory = executionMode.threadFactory();
+        int maxChefs = autoscaleLimits != null ? Math.max(autoscaleLimits[1], chefCount) : chefCount;
+        int maxWaiters = autoscaleLimits != null ? Math.max(autoscaleLimits[3], waiterCount) : waiterCount;
+        chefSlots.clear();
+        chefSlotCount = maxChefs;
+
+        customerQueue = queueType.create(queueSize * 2);
+        int kitchens = Math.max(1, Math.min(shards, chefCount));
+        if (autoscaleLimits != null) {
+            // на каждой кухне должен остаться хотя бы один повар, иначе ее заказы никто не приготовит
+            autoscaleLimits[0] = Math.max(autoscaleLimits[0], kitchens);
+        }
+        if (kitchens > 1) {
+            Kitchen[] parts = new Kitchen[kitchens];
+            for (int i = 0; i < kitchens; i++) {
+                parts[i] = createKitchen((maxChefs + kitchens - 1) / kitchens);
+            }
+            kitchen = new ShardedKitchen(parts, routing);
+            stats.setShards(kitchens, routing);
+        } else {
+            kitchen = createKitchen(maxChefs);
+        }
+        stats.setKitchenDiscipline(discipline);
+        stations = stationCapacity != null ? new KitchenStations(stationCapacity, chefCount) : null;
+        stats.setStations(stations);
+        if (pooledOrders) {
+            // с запасом на все места, где заказ может находиться одновременно
+            orderPool = new OrderPool(queueSize * (2 + kitchens) + (maxChefs + maxWaiters) * batchSize + 256);
+            activeOrders = new OrderRegistry(waiterCount, orderPool.getCapacity());
+        } else {
+            orderPool = null;
+            activeOrders = new OrderRegistry(waiterCount);
+        }
+        readyQueues = new ConcurrentHashMap<>();
+
+        // сначала запускаем генератор клиентов
+        customerGenerator = arrivals != null
+                ? new CustomerGenerator(customerQueue, stats, orderIds, arrivals)
+                : new CustomerGenerator(customerQueue, stats, orderIds);
+        customerGenerator.setOverloadPolicy(overloadPolicy, maxWaitMillis);
+        customerGenerator.setOrderLimit(orderLimit);
+        customerGenerator.setOrderPool(orderPool);
+        customerThread = threadFactory.newThread(customerGenerator);
+        customerThread.start();
+
+        // потом создаем поваров (при автоподборе их число меняется, пул не фиксированный)
+        chefPool = autoscaleLimits != null
+                ? Executors.newCachedThreadPool(threadFactory)
+                : Executors.newFixedThreadPool(chefCount, threadFactory);
+        chefs = new CopyOnWriteArrayList<>();
+        for (int i = 1; i <= chefCount; i++) {
+            addChef();
+        }
+
+        // создаем официантов
+        waiters = new CopyOnWriteArrayList<>();
+        waiterThreads = new CopyOnWriteArrayList<>();
+        for (int i = 1; i <= waiterCount; i++) {
+            addWaiter();
+        }
+
+        if (sampleIntervalMillis > 0) {
+            sampler = new QueueSampler(sampleIntervalMillis, customerQueue, kitchen,
+                    activeOrders, chefs, waiters);
+            sampler.start();
+        }
+
+        if (autoscaleLimits != null) {
+            autoscaler = new StaffAutoscaler(this, stats, autoscaleLimits[0], autoscaleLimits[1],
+                    autoscaleLimits[2], autoscaleLimits[3], autoscaleCooldownMillis, autoscaleTargetWaitMillis);
+            autoscaler.start();
+        }
+    }
+
+    private Kitchen createKitchen(int chefs) {
+        return discipline == KitchenDiscipline.FIFO
+                ? kitchenMode.create(queueType, chefs, queueSize)
+                : new PriorityKitchen(discipline, queueSize);
+    }
+
+    // новый повар берет свободный номер очереди на кухне. номер ушедшего освобождается, только когда
+    // тот доготовит и выйдет из run() - иначе двое делили бы одну очередь и место в parked.
+    // false - все номера пока заняты уходящими поварами
+    synchronized boolean addChef() {
+        int index = chefSlots.nextClearBit(0);
+        if (index >= chefSlotCount) {
+            return false;
+        }
+        Chef chef = new Chef("Повар-" + (chefs.size() + 1), index, kitchen, readyQueues, stats);
+        chef.setBatching(batchSize, batchDelayMillis);
+        chefSlots.set(index);
+        chef.setStations(stations);
+        if (profiling) {
+            chef.setProfile(new StaffProfile(chef.getName()));
+        }
+        chefs.add(chef);
+        activeChefs.add(chef);
+        updateKitchenChefs();
+        chefPool.execute(() -> {
+            try {
+                chef.run();
+            } finally {
+                releaseChefSlot(index);
+            }
+        });
+        return true;
+    }
+
+    // уходит последний пришедший: он доготовит то, что начал, и вернет отложенное на кухню
+    synchronized void retireChef() {
+        Chef chef = activeChefs.remove(activeChefs.size() - 1);
+        updateKitchenChefs();
+        chef.stop();
+    }
+
+    private synchronized void releaseChefSlot(int index) {
+        chefSlots.clear(index);
+    }
+
+    private void updateKitchenChefs() {
+        int[] indices = new int[activeChefs.size()];
+        for (int i = 0; i < indices.length; i++) indices[i] = activeChefs.get(i).getIndex();
+        kitchen.setActiveChefs(indices);
+        if (stations != null) {
+            stations.setChefs(indices.length);
+        }
+    }
+
+    synchronized void addWaiter() {
+        String name = "Официант-" + (waiters.size() + 1);
+        // с пулом - без узлов на каждый заказ, но на место кухни и пачку, а не на весь пул:
+        // больше готовых у одного официанта - повар подождет в put, пока он разнесет
+        BlockingQueue<Order> readyOrders = orderPool != null
+                ? new ArrayBlockingQueue<>(queueSize + batchSize)
+                : new LinkedBlockingQueue<>();
+        readyQueues.put(name, readyOrders);
+
+        Waiter waiter = new Waiter(name, customerQueue, kitchen,
+                activeOrders, readyOrders, stats);
+        waiter.setBatchSize(batchSize);
+        waiter.setOrderPool(orderPool);
+        if (profiling) {
+            waiter.setProfile(new StaffProfile(name));
+        }
+        waiter.setOverloadPolicy(overloadPolicy, maxWaitMillis);
+        waiters.add(waiter);
+        activeWaiters.add(waiter);
+        Thread thread = threadFactory.newThread(waiter);
+        waiterThreads.add(thread);
+        thread.start();
+    }
+
+    // официант перестает брать заказы и уходит, когда разнесет все свои
+    synchronized void retireWaiter() {
+        activeWaiters.remove(activeWaiters.size() - 1).retire();
+    }
+
+    synchronized int getActiveChefCount() {
+        return activeChefs.size();
+    }
+
+    synchronized int getActiveWaiterCount() {
+        return activeWaiters.size();
+    }
+
+    synchronized int getBusyChefCount() {
+        int busy = 0;
+        for (Chef chef : activeChefs) if (chef.isBusy()) busy++;
+        return busy;
+    }
+
+    synchronized int getBusyWaiterCount() {
+        int busy = 0;
+        for (Waiter waiter : activeWaiters) if (waiter.isBusy()) busy++;
+        return busy;
+    }
+
+    int getCustomerQueueSize() {
+        return customerQueue.size();
+    }
+
+    int getOrdersInFlight() {
+        return activeOrders.size();
+    }
+
+    // все, кто выходил на смену (списки можно читать из любого потока)
+    List<Chef> getChefs() {
+        return chefs;
+    }
+
+    List<Waiter> getWaiters() {
+        return waiters;
+    }
+
+    int getKitchenSize() {
+        return kitchen.size();
+    }
+
+    public ShutdownReport stop() {
+        return stop(0);
+    }
+
+    // drainMillis > 0 - клиенты больше не приходят, а уже пришедших обслуживаем до конца (но не дольше drainMillis);
+    // потом все потоки останавливаются разом и ждутся с одним общим сроком, сколько бы их ни было
+    public ShutdownReport stop(long drainMillis) {
+        ShutdownReport report = new ShutdownReport();
+        // пока все потоки живы - считаем, сколько они выделили за смену
+        allocatedBytes = allocations.stop();
+
+        // состав больше не меняем
+        if (autoscaler != null) {
+            autoscaler.stop();
+        }
+
+        // клиенты больше не приходят
+        stats.trackCompleted();
+        long start = System.nanoTime();
+        customerGenerator.stop();
+        customerThread.interrupt();
+
+        if (drainMillis > 0) {
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(drainMillis);
+            while (System.nanoTime() - deadline < 0 && !drained()) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+        }
+        long stopStart = System.nanoTime();
+        report.drainMillis = TimeUnit.NANOSECONDS.toMillis(stopStart - start);
+
+        // всем сразу: официантам и поварам стоп и прерывание
+        for (Waiter waiter : waiters) waiter.stop();
+        for (Chef chef : chefs) chef.stop();
+        for (Thread thread : waiterThreads) thread.interrupt();
+        chefPool.shutdownNow();
+
+        // ждем всех с одним сроком на всех
+        long deadline = stopStart + TimeUnit.MILLISECONDS.toNanos(STOP_TIMEOUT_MILLIS);
+        try {
+            if (!join(customerThread, deadline)) report.stuckThreads++;
+            for (Thread thread : waiterThreads) {
+                if (!join(thread, deadline)) report.stuckThreads++;
+            }
+            if (!chefPool.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                report.stuckThreads++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        report.stopMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stopStart);
+        // профили уже сняты (end() в конце run() каждого работника)
+        if (profiling) {
+            StaffProfile.restoreContentionMonitoring();
+        }
+
+        if (sampler != null) {
+            sampler.stop();
+        }
+
+        // все стоят - разбираем, что где осталось
+        report.completed.addAll(stats.getTrackedCompleted());
+        for (Order order : customerGenerator.getUnsent()) report.abandoned.add(order.getId());
+        for (Order order : customerQueue) report.abandoned.add(order.getId());
+        for (Waiter waiter : waiters) {
+            for (Order order : waiter.getUnaccepted()) report.dropped.add(order.getId());
+        }
+        report.dropped.addAll(activeOrders.ids());
+
+        // допечатываем журнал, чтобы он не смешался с итоговой статистикой
+        EventLog.flush();
+        return report;
+    }
+
+    private static final long STOP_TIMEOUT_MILLIS = 2000;
+
+    // клиенты закончились: очередь пуста, пачки официантов разобраны, все принятые доставлены
+    private boolean drained() {
+        if (customerThread.isAlive() || !customerQueue.isEmpty()) {
+            return false;
+        }
+        for (Waiter waiter : waiters) {
+            if (waiter.getPendingCount() > 0) {
+                return false;
+            }
+        }
+        return activeOrders.size() == 0;
+    }
+
+    private static boolean join(Thread thread, long deadline) throws InterruptedException {
+        long left = deadline - System.nanoTime();
+        if (left > 0) {
+            TimeUnit.NANOSECONDS.timedJoin(thread, left);
+        }
+        return !thread.isAlive();
+    }
+
+    public void exportSamples() {
+        if (sampler == null || samplesPath == null) {
+            return;
+        }
+        try {
+            sampler.export(samplesPath);
+            System.out.println("Временной ряд сохранен: " + samplesPath + " (" + sampler.size() + " точек)");
+        } catch (IOException e) {
+            System.out.println("Не удалось сохранить временной ряд: " + e.getMessage());
+        }
+    }
+
+    public void printPersonnelStats() {
+        System.out.println("\nСТАТИСТИКА ПЕРСОНАЛА:");
+        for (Chef chef : chefs) {
+            System.out.println("  " + chef.getStats());
+        }
+        for (Waiter waiter : waiters) {
+            System.out.println("  " + waiter.getStats());
+        }
+
+        System.out.println("\nОсталось заказов у клиентов: " + customerQueue.size());
+        System.out.println("Осталось заказов на кухне: " + kitchen.size());
+        System.out.println("Заказов в обработке: " + activeOrders.size());
+        if (orderPool != null) {
+            System.out.println("Пул заказов: " + orderPool.getCapacity() + ", создано сверх пула: "
+                    + orderPool.getMisses());
+        }
+        if (allocatedBytes >= 0 && stats.getOrdersCreated() > 0) {
+            System.out.printf("Выделено памяти за смену: %d КБ, ~%d байт на заказ\n",
+                    allocatedBytes / 1024, allocatedBytes / stats.getOrdersCreated());
+        }
+        if (autoscaler != null) {
+            autoscaler.printTimeline(chefCount, waiterCount);
+        }
+        if (profiling) {
+            List<StaffProfile> chefProfiles = new ArrayList<>();
+            for (Chef chef : chefs) chefProfiles.add(chef.getProfile());
+            List<StaffProfile> waiterProfiles = new ArrayList<>();
+            for (Waiter waiter : waiters) waiterProfiles.add(waiter.getProfile());
+            StaffProfile.print(chefProfiles, waiterProfiles);
+        }
+        System.out.println("\n" + "=".repeat(50));
+    }
+}
+
+// MBean только для чтения: атрибуты берутся из values при каждом обращении,
+// поэтому новые повара и официанты (автоподбор) появляются в JMX сами.
+// имена атрибутов - латиница без пробелов, русский текст - в описании (values заполняет его, если передали карту)
+class MetricsMBean implements DynamicMBean {
+    private final String description;
+    private final Function<Map<String, String>, Map<String, Number>> values;
+
+    public MetricsMBean(String description, Function<Map<String, String>, Map<String, Number>> values) {
+        this.description = description;
+        this.values = values;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = values.apply(null).get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("только для чтения: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> current = values.apply(null);
+        AttributeList list = new AttributeList();
+        for (String name : attributes) {
+            Number value = current.get(name);
+            if (value != null) {
+                list.add(new Attribute(name, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        Map<String, String> help = new HashMap<>();
+        for (Map.Entry<String, Number> entry : values.apply(help).entrySet()) {
+            attributes.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                    help.getOrDefault(entry.getKey(), entry.getKey()), true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), description,
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+}
+
+// живые метрики запуска: JMX (RestaurantSystem:type=...) и http://localhost:порт/metrics для Prometheus
+// значения читаются в момент запроса, симуляция ради метрик ничего лишнего не делает
+class RestaurantMetrics {
+    static final String DOMAIN = "RestaurantSystem";
+
+    private final RestaurantSimulation sim;
+    private final Statistics stats;
+    private final long startNanos = System.nanoTime();
+    private final List<ObjectName> registered = new ArrayList<>();
+    private HttpServer server;
+
+    public RestaurantMetrics(RestaurantSimulation sim, Statistics stats) {
+        this.sim = sim;
+        this.stats = stats;
+    }
+
+    // httpPort 0 - только JMX
+    public void start(int httpPort) throws IOException {
+        MBeanServer beans = ManagementFactory.getPlatformMBeanServer();
+        try {
+            register(beans, "Restaurant", new MetricsMBean("Ресторан", this::restaurant));
+            register(beans, "Chefs", new MetricsMBean("Повара: приготовлено заказов", this::chefs));
+            register(beans, "Waiters", new MetricsMBean("Официанты: принято и доставлено", this::waiters));
+        } catch (JMException e) {
+            throw new IOException("не удалось зарегистрировать MBean: " + e.getMessage(), e);
+        }
+
+        if (httpPort > 0) {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), httpPort), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+        }
+    }
+
+    private void register(MBeanServer beans, String type, MetricsMBean bean) throws JMException {
+        ObjectName name = new ObjectName(DOMAIN + ":type=" + type);
+        // бин мог остаться от прошлого запуска, если тот упал
+        if (beans.isRegistered(name)) {
+            beans.unregisterMBean(name);
+        }
+        beans.registerMBean(bean, name);
+        registered.add(name);
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+        MBeanServer beans = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                beans.unregisterMBean(name);
+            } catch (JMException ignored) {
+            }
+        }
+        registered.clear();
+    }
+
+    private Map<String, Number> restaurant(Map<String, String> help) {
+        Map<String, Number> values = new LinkedHashMap<>();
+        values.put("OrdersCreated", stats.getOrdersCreated());
+        values.put("OrdersCompleted", stats.getOrdersCompleted());
+        values.put("OrdersRejected", stats.getOrdersRejected());
+        values.put("OrdersTimedOut", stats.getOrdersTimedOut());
+        values.put("OrdersLost", stats.getOrdersLost());
+        values.put("OrdersDegraded", stats.getOrdersDegraded());
+        values.put("OrdersInFlight", sim.getOrdersInFlight());
+        values.put("CustomerQueue", sim.getCustomerQueueSize());
+        values.put("KitchenQueue", sim.getKitchenSize());
+        values.put("ActiveChefs", sim.getActiveChefCount());
+        values.put("BusyChefs", sim.getBusyChefCount());
+        values.put("ActiveWaiters", sim.getActiveWaiterCount());
+        values.put("BusyWaiters", sim.getBusyWaiterCount());
+        double minutes = (System.nanoTime() - startNanos) / 60e9;
+        values.put("ThroughputPerMinute", minutes > 0 ? stats.getOrdersCompleted() / minutes : 0.0);
+        values.put("LatencyP50Millis", stats.getEndToEnd().percentile(50) / 1000);
+        values.put("LatencyP99Millis", stats.getEndToEnd().percentile(99) / 1000);
+        return values;
+    }
+
+    private Map<String, Number> chefs(Map<String, String> help) {
+        Map<String, Number> values = new LinkedHashMap<>();
+        for (Chef chef : sim.getChefs()) {
+            String name = "Chef" + actorNumber(chef.getName());
+            values.put(name, chef.getOrdersCooked());
+            describe(help, name, chef.getName() + ": приготовил");
+        }
+        return values;
+    }
+
+    private Map<String, Number> waiters(Map<String, String> help) {
+        Map<String, Number> values = new LinkedHashMap<>();
+        for (Waiter waiter : sim.getWaiters()) {
+            String name = "Waiter" + actorNumber(waiter.getName());
+            values.put(name + "Taken", waiter.getOrdersTaken());
+            values.put(name + "Delivered", waiter.getOrdersDelivered());
+            describe(help, name + "Taken", waiter.getName() + ": принял");
+            describe(help, name + "Delivered", waiter.getName() + ": доставил");
+        }
+        return values;
+    }
+
+    // "Повар-3" → "3"
+    private static String actorNumber(String name) {
+        return name.substring(name.indexOf('-') + 1);
+    }
+
+    private static void describe(Map<String, String> help, String name, String text) {
+        if (help != null) {
+            help.put(name, text);
+        }
+    }
+
+    // текстовый формат Prometheus 0.0.4
+    String prometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        metric(out, "restaurant_orders_created_total", "counter", "Заказов создано");
+        sample(out, "restaurant_orders_created_total", null, null, stats.getOrdersCreated());
+        metric(out, "restaurant_orders_completed_total", "counter", "Заказов доставлено");
+        sample(out, "restaurant_orders_completed_total", null, null, stats.getOrdersCompleted());
+        metric(out, "restaurant_orders_refused_total", "counter", "Заказов не принято при перегрузке");
+        sample(out, "restaurant_orders_refused_total", "reason", "rejected", stats.getOrdersRejected());
+        sample(out, "restaurant_orders_refused_total", "reason", "timed_out", stats.getOrdersTimedOut());
+        metric(out, "restaurant_orders_lost_total", "counter", "Заказов приготовлено, но официанта уже нет");
+        sample(out, "restaurant_orders_lost_total", null, null, stats.getOrdersLost());
+        metric(out, "restaurant_orders_degraded_total", "counter", "Заказов упрощено при перегрузке");
+        sample(out, "restaurant_orders_degraded_total", null, null, stats.getOrdersDegraded());
+        metric(out, "restaurant_orders_in_flight", "gauge", "Заказов между официантом и доставкой");
+        sample(out, "restaurant_orders_in_flight", null, null, sim.getOrdersInFlight());
+
+        metric(out, "restaurant_queue_depth", "gauge", "Глубина очередей");
+        sample(out, "restaurant_queue_depth", "queue", "customers", sim.getCustomerQueueSize());
+        sample(out, "restaurant_queue_depth", "queue", "kitchen", sim.getKitchenSize());
+        metric(out, "restaurant_staff_active", "gauge", "Персонал на смене");
+        sample(out, "restaurant_staff_active", "role", "chef", sim.getActiveChefCount());
+        sample(out, "restaurant_staff_active", "role", "waiter", sim.getActiveWaiterCount());
+        metric(out, "restaurant_staff_busy", "gauge", "Персонал занят прямо сейчас");
+        sample(out, "restaurant_staff_busy", "role", "chef", sim.getBusyChefCount());
+        sample(out, "restaurant_staff_busy", "role", "waiter", sim.getBusyWaiterCount());
+
+        latency(out, "restaurant_order_latency_ms", "От клиента до клиента (с начала запуска)", stats.getEndToEnd());
+        latency(out, "restaurant_kitchen_wait_ms", "Ожидание повара (с начала запуска)", stats.getKitchenWait());
+
+        metric(out, "restaurant_chef_orders_cooked_total", "counter", "Приготовлено поваром");
+        for (Chef chef : sim.getChefs()) {
+            sample(out, "restaurant_chef_orders_cooked_total", "chef", chef.getName(), chef.getOrdersCooked());
+        }
+        metric(out, "restaurant_waiter_orders_taken_total", "counter", "Принято официантом");
+        for (Waiter waiter : sim.getWaiters()) {
+            sample(out, "restaurant_waiter_orders_taken_total", "waiter", waiter.getName(), waiter.getOrdersTaken());
+        }
+        metric(out, "restaurant_waiter_orders_delivered_total", "counter", "Доставлено официантом");
+        for (Waiter waiter : sim.getWaiters()) {
+            sample(out, "restaurant_waiter_orders_delivered_total", "waiter", waiter.getName(),
+                    waiter.getOrdersDelivered());
+        }
+        return out.toString();
+    }
+
+    private static void metric(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String label, String value, long number) {
+        out.append(name);
+        if (label != null) {
+            out.append('{').append(label).append("=\"");
+            escapeLabel(out, value);
+            out.append("\"}");
+        }
+        out.append(' ').append(number).append('\n');
+    }
+
+    // в значении метки по формату экранируются только \\, " и перевод строки
+    static void escapeLabel(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private static void latency(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+        metric(out, name, "summary", help);
+        for (double quantile : new double[]{0.5, 0.9, 0.99}) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(String.format(Locale.ROOT, "%.3f", histogram.percentile(quantile * 100) / 1000.0))
+                    .append('\n');
+        }
+        out.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+}
+
+// итог остановки симуляции: какие заказы доделали, какие бросили и сколько это заняло
+class ShutdownReport {
+    private static final int SHOW_IDS = 20;
+
+    final List<Integer> completed = new ArrayList<>(); // доставлены, пока доделывали
+    final List<Integer> abandoned = new ArrayList<>(); // клиент так и не дошел до официанта
+    final List<Integer> dropped = new ArrayList<>();   // официант забрал, но не доставили (пачка, кухня, повар, готовые)
+    long drainMillis;   // сколько доделывали
+    long stopMillis;    // сколько останавливали потоки
+    int stuckThreads;   // не остановились к сроку
+
+    public void print() {
+        System.out.println("\nОСТАНОВКА:");
+        System.out.printf("  Доделывали %d мс, остановка потоков %d мс%s\n", drainMillis, stopMillis,
+                stuckThreads > 0 ? ", не остановились к сроку: " + stuckThreads : "");
+        printIds("Доделано", completed);
+        printIds("Брошено в очереди клиентов", abandoned);
+        printIds("Потеряно в работе", dropped);
+    }
+
+    private static void printIds(String title, List<Integer> ids) {
+        Collections.sort(ids);
+        StringBuilder line = new StringBuilder("  ").append(title).append(": ").append(ids.size());
+        for (int i = 0; i < ids.size() && i < SHOW_IDS; i++) {
+            line.append(i == 0 ? " (#" : ", #").append(ids.get(i));
+        }
+        if (!ids.isEmpty()) {
+            line.append(ids.size() > SHOW_IDS ? ", ...)" : ")");
+        }
+        System.out.println(line);
+    }
+}
+
+// автоподбор персонала: раз в секунду смотрим на очереди и ожидание на этапах,
+// добавляем или отпускаем по одному повару/официанту, не чаще чем раз в cooldown
+class StaffAutoscaler {
+    private static final int INTERVAL_MILLIS = 1000;
+
+    private final RestaurantSimulation sim;
+    private final Statistics stats;
+    private final int minChefs;
+    private final int maxChefs;
+    private final int minWaiters;
+    private final int maxWaiters;
+    private final long cooldownNanos;
+    private final long targetWaitMillis;
+
+    private final List<String> timeline = new ArrayList<>();
+    private double chefSeconds;   // сколько всего отработали повара (для сравнения со статичным составом)
+    private double waiterSeconds;
+    private long startNanos;
+    private long lastChefChange;
+    private long lastWaiterChange;
+    private volatile boolean running = true;
+    private Thread thread;
+
+    public StaffAutoscaler(RestaurantSimulation sim, Statistics stats, int minChefs, int maxChefs,
+                           int minWaiters, int maxWaiters, int cooldownMillis, int targetWaitMillis) {
+        this.sim = sim;
+        this.stats = stats;
+        this.minChefs = minChefs;
+        this.maxChefs = maxChefs;
+        this.minWaiters = minWaiters;
+        this.maxWaiters = maxWaiters;
+        this.cooldownNanos = TimeUnit.MILLISECONDS.toNanos(cooldownMillis);
+        this.targetWaitMillis = targetWaitMillis;
+    }
+
+    public void start() {
+        startNanos = System.nanoTime();
+        lastChefChange = startNanos - cooldownNanos;
+        lastWaiterChange = startNanos - cooldownNanos;
+        thread = new Thread(this::run, "StaffAutoscaler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long last = startNanos;
+        while (running) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS));
+            long now = System.nanoTime();
+            double seconds = (now - last) / 1e9;
+            last = now;
+            synchronized (this) {
+                chefSeconds += sim.getActiveChefCount() * seconds;
+                waiterSeconds += sim.getActiveWaiterCount() * seconds;
+            }
+            if (running) {
+                decide(now);
+            }
+        }
+    }
+
+    private void decide(long now) {
+        int chefs = sim.getActiveChefCount();
+        int kitchen = sim.getKitchenSize();
+        long kitchenWait = stats.getRecentKitchenWaitMillis();
+        if (now - lastChefChange >= cooldownNanos) {
+            if (chefs < maxChefs && (kitchen > chefs || kitchenWait > targetWaitMillis)) {
+                // все места на кухне еще у уходящих поваров - попробуем на следующем шаге
+                if (sim.addChef()) {
+                    lastChefChange = now;
+                    record(now, "повара", chefs, chefs + 1, "на кухне " + kitchen + ", ожидание " + kitchenWait + " мс");
+                }
+            } else if (chefs > minChefs && kitchen == 0 && kitchenWait < targetWaitMillis / 2
+                    && sim.getBusyChefCount() < chefs - 1) {
+                sim.retireChef();
+                lastChefChange = now;
+                record(now, "повара", chefs, chefs - 1, "кухня пустая, свободных " + (chefs - sim.getBusyChefCount()));
+            }
+        }
+
+        int waiters = sim.getActiveWaiterCount();
+        int customers = sim.getCustomerQueueSize();
+        long waiterWait = stats.getRecentWaiterWaitMillis();
+        if (now - lastWaiterChange >= cooldownNanos) {
+            if (waiters < maxWaiters && (customers > waiters || waiterWait > targetWaitMillis)) {
+                sim.addWaiter();
+                lastWaiterChange = now;
+                record(now, "официанты", waiters, waiters + 1,
+                        "клиентов в очереди " + customers + ", ожидание " + waiterWait + " мс");
+            } else if (waiters > minWaiters && customers == 0 && waiterWait < targetWaitMillis / 2
+                    && sim.getBusyWaiterCount() < waiters - 1) {
+                sim.retireWaiter();
+                lastWaiterChange = now;
+                record(now, "официанты", waiters, waiters - 1, "клиентов в очереди нет");
+            }
+        }
+    }
+
+    private synchronized void record(long now, String role, int from, int to, String reason) {
+        timeline.add(String.format("  %7.1f сек  %-10s %2d → %-2d  %s", (now - startNanos) / 1e9, role, from, to, reason));
+    }
+
+    public synchronized void printTimeline(int initialChefs, int initialWaiters) {
+        System.out.println("\nАВТОПОДБОР ПЕРСОНАЛА (повара " + minChefs + ".." + maxChefs
+                + ", официанты " + minWaiters + ".." + maxWaiters + "):");
+        if (timeline.isEmpty()) {
+            System.out.println("  состав не менялся");
+        }
+        for (String line : timeline) {
+            System.out.println(line);
+        }
+        double hours = (System.nanoTime() - startNanos) / 3.6e12;
+        System.out.printf("  Отработано: повара %.2f ч, официанты %.2f ч (в среднем %.1f и %.1f человек)\n",
+                chefSeconds / 3600, waiterSeconds / 3600,
+                hours > 0 ? chefSeconds / 3600 / hours : 0, hours > 0 ? waiterSeconds / 3600 / hours : 0);
+        System.out.printf("  Для сравнения: начальный состав - %.2f ч, максимальный - %.2f ч\n",
+                (initialChefs + initialWaiters) * hours, (maxChefs + maxWaiters) * hours);
+    }
+}
+
+// симуляция в виртуальном времени: вместо sleep у нас очередь событий,
+// поэтому смена в 8 часов считается за миллисекунды
+class VirtualTimeSimulation {
+    // типы событий
+    private static final int ARRIVAL = 0;     // пришел клиент
+    private static final int WAITER_FREE = 1; // официант закончил паузу
+    private static final int COOK_DONE = 2;   // повар приготовил заказ
+    private static final int WAITER_GIVE_UP = 3; // клиент официанта с заказом в руках не дождался кухни
+    private static final int STEP_DONE = 4;   // повар закончил шаг на станции
+
+    // пауза официанта та же, что и в обычном режиме (в мс)
+    private static final int WAITER_PAUSE = 100;
+
+    private static class SimEvent implements Comparable<SimEvent> {
+        final long time;
+        final long seq; // чтобы события в одно время шли по порядку
+        final int type;
+        final int actor;
+        final Order order;
+
+        SimEvent(long time, long seq, int type, int actor, Order order) {
+            this.time = time;
+            this.seq = seq;
+            this.type = type;
+            this.actor = actor;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(SimEvent other) {
+            if (time != other.time) return Long.compare(time, other.time);
+            return Long.compare(seq, other.seq);
+        }
+    }
+
+    private final Statistics stats;
+    private final int chefCount;
+    private final int waiterCount;
+    private final int queueSize;
+    private ArrivalProcess arrivals;
+    private long nextArrivalNanos; // точное время прихода, часы событий - в мс
+    private OverloadPolicy overloadPolicy = OverloadPolicy.BLOCK;
+    private long maxWaitNanos;
+
+    private final PriorityQueue<SimEvent> events = new PriorityQueue<>();
+    private long now;
+    private long seq;
+    private int nextOrderId = 1;
+
+    private final ArrayDeque<Order> customerQueue = new ArrayDeque<>(); // клиенты → официанты
+    private KitchenDiscipline discipline = KitchenDiscipline.FIFO;
+    private int shards = 1;
+    private RoutingPolicy routing = RoutingPolicy.ROUND_ROBIN;
+    private final Random routingRandom;
+    private int routed; // счетчик для маршрутизации по кругу
+    private Queue<Order>[] kitchens;  // официанты → кухни (обычно одна)
+    private final ArrayDeque<Order> blockedCustomerOrders = new ArrayDeque<>(); // ждут места в очереди
+
+    // состояние официантов
+    private final boolean[] waiterBusy;
+    private final List<ArrayDeque<Order>> readyOrders = new ArrayList<>(); // готовые заказы каждого официанта
+    private List<ArrayDeque<Integer>> blockedWaiters; // ждут места на своей кухне
+    private final Order[] waiterHeldOrder;
+    private int nextWaiter;
+    private final int[] ordersTaken;
+    private final int[] ordersDelivered;
+
+    // состояние поваров
+    private final boolean[] chefBusy;
+    private final int[] ordersCooked;
+    private int nextChef;
+    private int activeOrders;
+    private KitchenStations stations; // null - повар готовит заказ целиком
+    private long chefBusyMillis; // сколько поваров-мс ушло на готовку, со станциями - по шагам (для сверки с прогнозом)
+
+    public VirtualTimeSimulation(Statistics stats, int chefCount, int waiterCount, int queueSize) {
+        this(stats, chefCount, waiterCount, queueSize, System.nanoTime());
+    }
+
+    public VirtualTimeSimulation(Statistics stats, int chefCount, int waiterCount,
+                                 int queueSize, long seed) {
+        this.stats = stats;
+        this.chefCount = chefCount;
+        this.waiterCount = waiterCount;
+        this.queueSize = queueSize;
+        this.arrivals = new UniformArrivals(new Random(seed), 1000, 3000);
+        this.routingRandom = new Random(seed);
+
+        waiterBusy = new boolean[waiterCount];
+        waiterHeldOrder = new Order[waiterCount];
+        ordersTaken = new int[waiterCount];
+        ordersDelivered = new int[waiterCount];
+        for (int i = 0; i < waiterCount; i++) {
+            readyOrders.add(new ArrayDeque<>());
+        }
+        chefBusy = new boolean[chefCount];
+        ordersCooked = new int[chefCount];
+    }
+
+    public void setArrivalProcess(ArrivalProcess arrivals) {
+        this.arrivals = arrivals;
+    }
+
+    public void setKitchenDiscipline(KitchenDiscipline discipline) {
+        this.discipline = discipline;
+    }
+
+    // повар c работает на кухне c % shards
+    public void setSharding(int shards, RoutingPolicy routing) {
+        this.shards = Math.max(1, Math.min(shards, chefCount));
+        this.routing = routing;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void createKitchens() {
+        kitchens = new Queue[shards];
+        blockedWaiters = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            kitchens[i] = discipline.newQueue();
+            blockedWaiters.add(new ArrayDeque<>());
+        }
+        stats.setKitchenDiscipline(discipline);
+        if (shards > 1) {
+            stats.setShards(shards, routing);
+        }
+    }
+
+    public void setOverloadPolicy(OverloadPolicy overloadPolicy, int maxWaitMillis) {
+        this.overloadPolicy = overloadPolicy;
+        this.maxWaitNanos = nanos(maxWaitMillis);
+    }
+
+    public void setStations(int[] capacity) {
+        stations = capacity != null ? new KitchenStations(capacity, chefCount) : null;
+        stats.setStations(stations);
+    }
+
+    public void run(long durationMillis) {
+        createKitchens();
+        now = 0;
+        stats.start(now);
+        schedule(0, ARRIVAL, -1, null);
+
+        // обрабатываем события пока не закончится смена
+        while (!events.isEmpty() && events.peek().time <= durationMillis) {
+            SimEvent event = events.poll();
+            now = event.time;
+
+            switch (event.type) {
+                case ARRIVAL:
+                    onArrival();
+                    break;
+                case WAITER_FREE:
+                    onWaiterFree(event.actor);
+                    break;
+                case COOK_DONE:
+                    onCookDone(event.actor, event.order);
+                    break;
+                case WAITER_GIVE_UP:
+                    onWaiterGiveUp(event.actor, event.order);
+                    break;
+                case STEP_DONE:
+                    onStepDone(event.actor, event.order);
+                    break;
+            }
+        }
+
+        now = durationMillis;
+        stats.stop(now);
+    }
+
+    private void schedule(long time, int type, int actor, Order order) {
+        events.add(new SimEvent(time, seq++, type, actor, order));
+    }
+
+    private void onArrival() {
+        Order order = new Order(nextOrderId++, arrivals.nextCookTime(), null, now);
+        order.markCreated(nextArrivalNanos);
+        stats.recordOrderCreated(customerQueue.size());
+
+        // следующий клиент приходит по расписанию, даже если этот еще ждет
+        if (arrivals.hasNext()) {
+            nextArrivalNanos += arrivals.nextGapNanos();
+            schedule(TimeUnit.NANOSECONDS.toMillis(nextArrivalNanos), ARRIVAL, -1, null);
+        }
+
+        if (customerQueue.size() < queueSize * 2 && blockedCustomerOrders.isEmpty()) {
+            putCustomerOrder(order);
+        } else if (overloadPolicy == OverloadPolicy.REJECT) {
+            stats.recordOrderRejected();
+        } else {
+            // очередь полная - клиент ждет места
+            blockedCustomerOrders.add(order);
+        }
+    }
+
+    // TIMEOUT: клиент, прождавший дольше maxWait, уже ушел
+    private boolean gaveUp(Order order) {
+        if (overloadPolicy == OverloadPolicy.TIMEOUT && nanos(now) - order.getCreatedAt() > maxWaitNanos) {
+            stats.recordOrderTimedOut();
+            return true;
+        }
+        return false;
+    }
+
+    private void putCustomerOrder(Order order) {
+        customerQueue.add(order);
+        dispatchCustomerOrders();
+    }
+
+    // свободные официанты забирают заказы у клиентов (по кругу, чтобы не все доставалось первому)
+    private void dispatchCustomerOrders() {
+        for (int i = 0; i < waiterCount && !customerQueue.isEmpty(); i++) {
+            int w = (nextWaiter + i) % waiterCount;
+            if (!waiterBusy[w]) {
+                nextWaiter = (w + 1) % waiterCount;
+                acceptOrder(w);
+            }
+        }
+    }
+
+    private void acceptOrder(int waiter) {
+        Order order = customerQueue.poll();
+        while (order != null && gaveUp(order)) {
+            order = customerQueue.poll();
+        }
+        if (order == null) {
+            refillCustomerQueue();
+            return;
+        }
+        waiterBusy[waiter] = true;
+
+        // заказ переходит к официанту без копии
+        order.markPickedUp(nanos(now));
+        order.assignWaiter(waiterName(waiter));
+        ordersTaken[waiter]++;
+        activeOrders++;
+
+        int shard = routing.choose(shards, i -> kitchens[i].size(), waiter, routed++, routingRandom);
+        order.assignShard(shard);
+        if (kitchens[shard].size() < queueSize) {
+            sendToKitchen(waiter, order);
+        } else if (overloadPolicy == OverloadPolicy.REJECT) {
+            activeOrders--;
+            stats.recordOrderRejected();
+            schedule(now + WAITER_PAUSE, WAITER_FREE, waiter, null);
+        } else {
+            if (overloadPolicy == OverloadPolicy.DEGRADE && order.getCookTime() > OverloadPolicy.DEGRADED_COOK_TIME) {
+                order.degrade(OverloadPolicy.DEGRADED_COOK_TIME);
+                stats.recordOrderDegraded();
+            }
+            // кухня полная - официант стоит с заказом, но готовое разносит
+            waiterHeldOrder[waiter] = order;
+            blockedWaiters.get(shard).add(waiter);
+            deliverReadyOrders(waiter);
+            if (overloadPolicy == OverloadPolicy.TIMEOUT) {
+                long deadline = TimeUnit.NANOSECONDS.toMillis(order.getCreatedAt() + maxWaitNanos);
+                schedule(Math.max(now, deadline), WAITER_GIVE_UP, waiter, order);
+            }
+        }
+
+        refillCustomerQueue();
+    }
+
+    // место освободилось - клиент наконец встал в очередь
+    private void refillCustomerQueue() {
+        while (!blockedCustomerOrders.isEmpty() && customerQueue.size() < queueSize * 2) {
+            Order order = blockedCustomerOrders.poll();
+            if (!gaveUp(order)) {
+                putCustomerOrder(order);
+                return;
+            }
+        }
+    }
+
+    private void onWaiterGiveUp(int waiter, Order order) {
+        if (waiterHeldOrder[waiter] != order) {
+            return; // кухня успела принять заказ
+        }
+        waiterHeldOrder[waiter] = null;
+        blockedWaiters.get(order.getShard()).remove(waiter);
+        activeOrders--;
+        stats.recordOrderTimedOut();
+        onWaiterFree(waiter);
+    }
+
+    private void sendToKitchen(int waiter, Order order) {
+        kitchens[order.getShard()].add(order);
+        schedule(now + WAITER_PAUSE, WAITER_FREE, waiter, null);
+        dispatchKitchenOrders(order.getShard());
+    }
+
+    private void onWaiterFree(int waiter) {
+        waiterBusy[waiter] = false;
+        deliverReadyOrders(waiter);
+        if (!customerQueue.isEmpty()) {
+            acceptOrder(waiter);
+        }
+    }
+
+    private void deliverReadyOrders(int waiter) {
+        ArrayDeque<Order> ready = readyOrders.get(waiter);
+        while (!ready.isEmpty()) {
+            Order order = ready.poll();
+            order.markDelivered(nanos(now));
+            ordersDelivered[waiter]++;
+            activeOrders--;
+            stats.recordOrderCompleted(order);
+        }
+    }
+
+    // свободные повара этой кухни берут с нее заказы
+    private void dispatchKitchenOrders(int shard) {
+        if (stations != null) {
+            dispatchSteps();
+            return;
+        }
+        Queue<Order> kitchenQueue = kitchens[shard];
+        for (int i = 0; i < chefCount && !kitchenQueue.isEmpty(); i++) {
+            int c = (nextChef + i) % chefCount;
+            if (!chefBusy[c] && c % shards == shard) {
+                nextChef = (c + 1) % chefCount;
+                Order order = kitchenQueue.poll();
+                order.markKitchenStart(nanos(now));
+                chefBusy[c] = true;
+                schedule(now + order.getCookTime() * 1000L, COOK_DONE, c, order);
+                unblockWaiter(shard);
+            }
+        }
+    }
+
+    // на кухне появилось место для ждущего официанта
+    private void unblockWaiter(int shard) {
+        if (!blockedWaiters.get(shard).isEmpty()) {
+            int waiter = blockedWaiters.get(shard).poll();
+            Order held = waiterHeldOrder[waiter];
+            waiterHeldOrder[waiter] = null;
+            sendToKitchen(waiter, held);
+        }
+    }
+
+    // станции: свободный повар берет любой шаг, которому есть место, а если такого нет - новый заказ со своей кухни
+    private void dispatchSteps() {
+        for (int i = 0; i < chefCount; i++) {
+            int c = (nextChef + i) % chefCount;
+            if (chefBusy[c]) {
+                continue;
+            }
+            int shard = -1; // с какой кухни взяли новый заказ
+            Order order = stations.nextStep();
+            if (order == null) {
+                if (kitchens[c % shards].isEmpty() || !stations.tryAdmit()) {
+                    continue;
+                }
+                shard = c % shards;
+                order = kitchens[shard].poll();
+                order.markKitchenStart(nanos(now));
+                stations.admit(order, nanos(now));
+            }
+            nextChef = (c + 1) % chefCount;
+            chefBusy[c] = true;
+            stations.begin(order, nanos(now));
+            schedule(now + KitchenStations.stepMillis(order.getCookTime(), stations.current(order)),
+                    STEP_DONE, c, order);
+            if (shard >= 0) {
+                unblockWaiter(shard);
+            }
+        }
+    }
+
+    private void onStepDone(int chef, Order order) {
+        chefBusy[chef] = false;
+        Station station = stations.current(order);
+        long stepMillis = KitchenStations.stepMillis(order.getCookTime(), station);
+        chefBusyMillis += stepMillis;
+        if (stations.finish(order, nanos(stepMillis), nanos(now))) {
+            serve(chef, order);
+        }
+        dispatchSteps();
+    }
+
+    private void onCookDone(int chef, Order order) {
+        chefBusy[chef] = false;
+        chefBusyMillis += order.getCookTime() * 1000L;
+        serve(chef, order);
+        dispatchKitchenOrders(chef % shards);
+    }
+
+    private void serve(int chef, Order order) {
+        ordersCooked[chef]++;
+        order.markCooked(nanos(now));
+        order.setReady();
+
+        int waiter = waiterIndex(order.getWaiterName());
+        readyOrders.get(waiter).add(order);
+        if (!waiterBusy[waiter] || waiterHeldOrder[waiter] != null) {
+            deliverReadyOrders(waiter);
+        }
+    }
+
+    private String waiterName(int waiter) {
+        return "Официант-" + (waiter + 1);
+    }
+
+    public long getChefBusyMillis() {
+        return chefBusyMillis;
+    }
+
+    // каждый принятый заказ занимает официанта на WAITER_PAUSE
+    public long getWaiterBusyMillis() {
+        long taken = 0;
+        for (int count : ordersTaken) taken += count;
+        return taken * WAITER_PAUSE;
+    }
+
+    private static long nanos(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private int waiterIndex(String name) {
+        return Integer.parseInt(name.substring(name.indexOf('-') + 1)) - 1;
+    }
+
+    public void printPersonnelStats() {
+        System.out.println("\nСТАТИСТИКА ПЕРСОНАЛА:");
+        for (int c = 0; c < chefCount; c++) {
+            System.out.println("  " + String.format("Повар-%d: приготовил %d", c + 1, ordersCooked[c]));
+        }
+        for (int w = 0; w < waiterCount; w++) {
+            System.out.println("  " + String.format("%s: принял %d, доставил %d",
+                    waiterName(w), ordersTaken[w], ordersDelivered[w]));
+        }
+
+        System.out.println("\nОсталось заказов у клиентов: " + customerQueue.size());
+        int left = 0;
+        for (Queue<Order> kitchenQueue : kitchens) left += kitchenQueue.size();
+        System.out.println("Осталось заказов на кухне: " + left);
+        System.out.println("Заказов в обработке: " + activeOrders);
+        System.out.println("\n" + "=".repeat(50));
+    }
+}
+
+
+// тот же ресторан на java.util.concurrent.Flow: клиенты → официанты → повара → доставка.
+// никто не спит и не опрашивает очереди - этап просит у предыдущего (request(n)) ровно столько заказов,
+// сколько у него свободных работников и мест, а работа - это таймер на маленьком общем пуле потоков
+class FlowSimulation {
+    // официант тратит на заказ столько же, сколько в виртуальном времени
+    private static final int WAITER_MILLIS = 100;
+
+    private final Statistics stats;
+    private final int chefCount;
+    private final int waiterCount;
+    private final int queueSize;
+    private final int threads;
+    private ArrivalProcess arrivals = new UniformArrivals(new Random(), 1000, 3000);
+    private final OrderIdGenerator orderIds = new OrderIdGenerator();
+
+    private ScheduledExecutorService executor;
+    private SubmissionPublisher<Order> customers;
+    private volatile boolean running;
+    private long nextArrival;
+
+    public FlowSimulation(Statistics stats, int chefCount, int waiterCount, int queueSize, int threads) {
+        this.stats = stats;
+        this.chefCount = chefCount;
+        this.waiterCount = waiterCount;
+        this.queueSize = queueSize;
+        this.threads = threads;
+    }
+
+    public void setArrivalProcess(ArrivalProcess arrivals) {
+        this.arrivals = arrivals;
+    }
+
+    public void start() {
+        orderIds.reset();
+        executor = Executors.newScheduledThreadPool(threads);
+        // очередь клиентов - буфер издателя (размер округляется до степени двойки)
+        customers = new SubmissionPublisher<>(executor, queueSize * 2);
+
+        // как Waiter: берет заказ (время ожидания клиента кончается тут), сразу несет на кухню
+        // и только потом WAITER_MILLIS занят; пока кухня не берет - стоит с заказом
+        Stage waiters = new Stage(waiterCount, 0, true, executor, order -> WAITER_MILLIS,
+                order -> order.markPickedUp(System.nanoTime()), order -> { });
+        Stage chefs = new Stage(chefCount, queueSize, false, executor, order -> order.getCookTime() * 1000L,
+                order -> order.markKitchenStart(System.nanoTime()), order -> {
+                    order.markCooked(System.nanoTime());
+                    order.setReady();
+                });
+        customers.subscribe(waiters);
+        waiters.subscribe(chefs);
+        chefs.subscribe(new Delivery(stats));
+
+        running = true;
+        nextArrival = System.nanoTime();
+        scheduleArrival();
+    }
+
+    public void stop() {
+        running = false;
+        customers.close();
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getOrdersGenerated() {
+        return orderIds.getTotal();
+    }
+
+    // клиенты приходят по расписанию, задержку считаем от планового времени, чтобы не накапливать опоздание
+    private void scheduleArrival() {
+        if (!running || !arrivals.hasNext()) {
+            return;
+        }
+        nextArrival += arrivals.nextGapNanos();
+        try {
+            executor.schedule(this::arrive, nextArrival - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // остановились между проверкой и планированием
+        }
+    }
+
+    private void arrive() {
+        Order order = new Order(orderIds.generateId(), arrivals.nextCookTime(), null);
+        stats.recordOrderCreated(customers.estimateMaximumLag());
+        // буфер клиентов полон - официанты не успевают, клиент уходит сразу
+        if (customers.offer(order, (subscriber, dropped) -> false) < 0) {
+            stats.recordOrderRejected();
+        }
+        scheduleArrival();
+    }
+
+    // этап конвейера: workers работников и до capacity ждущих заказов.
+    // все состояние меняет только drain(), и в нем одновременно только один поток (счетчик wip),
+    // поэтому этапы могут звать друг друга напрямую без блокировок
+    private static final class Stage implements Flow.Processor<Order, Order>, Flow.Subscription {
+        private final int workers;
+        private final int capacity;
+        private final boolean handOffFirst; // отдать заказ дальше сразу, а работу сделать после
+        private final ScheduledExecutorService timer;
+        private final ToLongFunction<Order> serviceMillis;
+        private final Consumer<Order> onStart;
+        private final Consumer<Order> onDone;
+
+        private final Queue<Order> arrived = new ConcurrentLinkedQueue<>();  // пришли с прошлого этапа
+        private final Queue<Order> finished = new ConcurrentLinkedQueue<>(); // работник закончил
+        private final AtomicInteger rested = new AtomicInteger(); // handOffFirst: освободились после работы
+        private final AtomicLong demand = new AtomicLong(); // сколько просит следующий этап
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile Flow.Subscription upstream;
+        private volatile Flow.Subscriber<? super Order> downstream;
+
+        // только внутри drain()
+        private final ArrayDeque<Order> waiting = new ArrayDeque<>(); // ждут свободного работника
+        private final ArrayDeque<Order> done = new ArrayDeque<>();    // готовы, но следующий этап пока не просил
+        private int busy; // заняты работой или держат неотданный заказ
+        private long requested; // попросили у прошлого этапа, но еще не пришло
+
+        Stage(int workers, int capacity, boolean handOffFirst, ScheduledExecutorService timer,
+              ToLongFunction<Order> serviceMillis, Consumer<Order> onStart, Consumer<Order> onDone) {
+            this.workers = workers;
+            this.capacity = capacity;
+            this.handOffFirst = handOffFirst;
+            this.timer = timer;
+            this.serviceMillis = serviceMillis;
+            this.onStart = onStart;
+            this.onDone = onDone;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            upstream = subscription;
+            drain();
+        }
+
+        @Override
+        public void onNext(Order order) {
+            arrived.add(order);
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            System.out.println("Ошибка в конвейере: " + error);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super Order> subscriber) {
+            downstream = subscriber;
+            subscriber.onSubscribe(this);
+        }
+
+        @Override
+        public void request(long n) {
+            demand.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            demand.set(0);
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                Order order;
+                while ((order = arrived.poll()) != null) {
+                    requested--;
+                    waiting.add(order);
+                }
+                while ((order = finished.poll()) != null) {
+                    done.add(order);
+                }
+                busy -= rested.getAndSet(0);
+
+                emit();
+                // работник с неотданным заказом занят, как официант, который ждет места на кухне
+                boolean started = false;
+                while (busy < workers && !waiting.isEmpty()) {
+                    start(waiting.poll());
+                    started = true;
+                }
+                if (started && handOffFirst) {
+                    emit();
+                }
+
+                // просим ровно под свободные места
+                long free = workers + capacity - busy - waiting.size() - requested;
+                Flow.Subscription previous = upstream;
+                if (free > 0 && previous != null) {
+                    requested += free;
+                    previous.request(free);
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+
+        // отдаем дальше столько, сколько попросили
+        private void emit() {
+            Flow.Subscriber<? super Order> next = downstream;
+            while (next != null && !done.isEmpty() && demand.get() > 0) {
+                if (demand.get() != Long.MAX_VALUE) {
+                    demand.decrementAndGet();
+                }
+                Order order = done.poll();
+                next.onNext(order);
+                if (handOffFirst) {
+                    work(order, () -> rested.incrementAndGet());
+                } else {
+                    busy--;
+                }
+            }
+        }
+
+        private void start(Order order) {
+            busy++;
+            onStart.accept(order);
+            if (handOffFirst) {
+                done.add(order);
+            } else {
+                work(order, () -> finished.add(order));
+            }
+        }
+
+        private void work(Order order, Runnable then) {
+            try {
+                timer.schedule(() -> {
+                    onDone.accept(order);
+                    then.run();
+                    drain();
+                }, serviceMillis.applyAsLong(order), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // пул уже остановлен
+            }
+        }
+    }
+
+    // последний этап: готовое сразу отдаем клиенту
+    private static final class Delivery implements Flow.Subscriber<Order> {
+        private final Statistics stats;
+
+        Delivery(Statistics stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(Order order) {
+            order.markDelivered(System.nanoTime());
+            stats.recordOrderCompleted(order);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            System.out.println("Ошибка в конвейере: " + error);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
+
+// сравнение реестра заказов со старой схемой (synchronizedMap + общий lock + лок заказа)
+class RegistryBenchmark {
+    private interface Registry {
+        void register(Order order);
+        Order get(int id);
+        Order remove(int id);
+    }
+
+    // так было раньше: три уровня блокировок
+    private static class LegacyRegistry implements Registry {
+        private final Map<Integer, Order> map = Collections.synchronizedMap(new HashMap<>());
+        private final Object lock = new Object();
+
+        public void register(Order order) {
+            synchronized (lock) {
+                map.put(order.getId(), order);
+            }
+        }
+
+        public Order get(int id) {
+            synchronized (lock) {
+                return map.get(id);
+            }
+        }
+
+        public Order remove(int id) {
+            synchronized (lock) {
+                Order order = map.get(id);
+                if (order == null) return null;
+                synchronized (order) {
+                    return map.remove(id);
+                }
+            }
+        }
+    }
+
+    private static class StripedRegistry implements Registry {
+        private final OrderRegistry registry;
+
+        StripedRegistry(int waiters) {
+            registry = new OrderRegistry(waiters);
+        }
+
+        public void register(Order order) { registry.register(order); }
+        public Order get(int id) { return registry.get(id); }
+        public Order remove(int id) { return registry.remove(id); }
+    }
+
+    public static void run(int[] waiterCounts, int seconds) {
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("БЕНЧМАРК РЕЕСТРА ЗАКАЗОВ");
+        System.out.println("=".repeat(50));
+        System.out.printf("%-10s %20s %20s %8s\n", "Официанты", "старый (опер/с)", "новый (опер/с)", "выигрыш");
+
+        for (int waiters : waiterCounts) {
+            // прогрев, потом замер
+            measure(new LegacyRegistry(), waiters, 1);
+            measure(new StripedRegistry(waiters), waiters, 1);
+            double legacy = measure(new LegacyRegistry(), waiters, seconds);
+            double striped = measure(new StripedRegistry(waiters), waiters, seconds);
+            System.out.printf("%-10d %20.0f %20.0f %7.1fx\n", waiters, legacy, striped, striped / legacy);
+        }
+    }
+
+    // таблица без выделений после долгой работы: все ячейки уже хоть раз заняты,
+    // а поиск отсутствующего и переполнившего таблицу заказа должен стоить столько же, сколько в начале
+    public static void lookups(int capacity) {
+        System.out.println("\nПОИСК В ТАБЛИЦЕ РЕЕСТРА (мест " + capacity + ", в работе половина)");
+        System.out.printf("%-22s %16s %16s\n", "Прошло заказов", "есть, нс", "нет, нс");
+        OrderRegistry registry = new OrderRegistry(4, capacity);
+        int live = capacity / 2;
+        Order[] orders = new Order[live];
+        int nextId = 1;
+        for (int i = 0; i < live; i++) {
+            orders[i] = new Order(nextId++, 1, null, 0);
+            registry.register(orders[i]);
+        }
+        long churned = 0;
+        for (long target : new long[]{0, capacity, 10L * capacity, 100L * capacity, 1000L * capacity}) {
+            // старый заказ доставлен, вместо него новый - как в работе
+            for (; churned < target; churned++) {
+                int slot = (int) (churned % live);
+                registry.remove(orders[slot].getId());
+                orders[slot].reset(nextId++, 1);
+                registry.register(orders[slot]);
+            }
+            System.out.printf("%-22d %16.1f %16.1f\n", churned, lookupNanos(registry, orders, true),
+                    lookupNanos(registry, orders, false));
+        }
+    }
+
+    private static final int LOOKUPS = 2_000_000;
+    static volatile Object sink;
+
+    private static double lookupNanos(OrderRegistry registry, Order[] orders, boolean present) {
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            Order order = orders[i % orders.length];
+            sink = registry.get(present ? order.getId() : -1 - i);
+        }
+        return (System.nanoTime() - start) / (double) LOOKUPS;
+    }
+
+    // каждый поток как официант: зарегистрировал заказ, повар проверил, официант забрал
+    private static double measure(Registry registry, int threads, int seconds) {
+        LongAdder ops = new LongAdder();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            int firstId = t + 1;
+            Thread thread = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long local = 0;
+                int id = firstId;
+                while (running.get()) {
+                    id += threads; // у каждого потока свои id, как у разных официантов
+                    registry.register(new Order(id, 1, null, 0));
+                    registry.get(id);
+                    registry.remove(id);
+                    local += 3;
+                }
+                ops.add(local);
+            });
+            workers.add(thread);
+            thread.start();
+        }
+
+        try {
+            ready.await();
+            long start = System.nanoTime();
+            go.countDown();
+            Thread.sleep(seconds * 1000L);
+            running.set(false);
+            for (Thread thread : workers) thread.join();
+            return ops.sum() / ((System.nanoTime() - start) / 1e9);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+}
+
+
+// отчет: сколько поваров/официантов можно запустить и сколько памяти уходит на одного
+class ActorScaleReport {
+    public static void run(int[] counts) {
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("МАСШТАБИРОВАНИЕ ПЕРСОНАЛА");
+        System.out.println("=".repeat(50));
+        System.out.printf("%-14s %9s %9s %12s %12s %12s\n",
+                "Потоки", "Актеров", "Запущено", "Старт (мс)", "Куча/акт (Б)", "RSS/акт (КБ)");
+
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            if (mode == ExecutionMode.VIRTUAL && !ExecutionMode.virtualThreadsSupported()) {
+                System.out.printf("%-14s виртуальные потоки недоступны в этой JVM (нужна Java 21+)\n",
+                        mode.getTitle());
+                continue;
+            }
+            for (int count : counts) {
+                measure(mode, count);
+            }
+        }
+        System.out.println("=".repeat(50));
+    }
+
+    // запускаем простаивающих "поваров": они ждут заказ на пустой кухне, как Chef
+    private static void measure(ExecutionMode mode, int count) {
+        ThreadFactory factory = mode.threadFactory();
+        BlockingQueue<Order> kitchenQueue = new LinkedBlockingQueue<>();
+        AtomicBoolean working = new AtomicBoolean(true);
+        List<Thread> threads = new ArrayList<>();
+
+        System.gc();
+        long heapBefore = usedHeap();
+        long rssBefore = residentKb();
+        long start = System.nanoTime();
+
+        try {
+            for (int i = 0; i < count; i++) {
+                Thread thread = factory.newThread(() -> {
+                    while (working.get() && !Thread.currentThread().isInterrupted()) {
+                        try {
+                            kitchenQueue.poll(200, TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+        } catch (OutOfMemoryError e) {
+            // уперлись в лимит потоков ОС - это тоже результат
+            System.out.println("  не удалось создать больше потоков: " + e.getMessage());
+        }
+
+        long startMillis = (System.nanoTime() - start) / 1_000_000;
+        int started = threads.size();
+        System.gc();
+        long heapPerActor = started == 0 ? 0 : Math.max(0, usedHeap() - heapBefore) / started;
+        long rssAfter = residentKb();
+        String rssPerActor = rssBefore < 0 || started == 0 ? "н/д"
+                : String.format("%.1f", (rssAfter - rssBefore) / (double) started);
+
+        System.out.printf("%-14s %9d %9d %12d %12d %12s\n",
+                mode.getTitle(), count, started, startMillis, heapPerActor, rssPerActor);
+
+        // останавливаем так же, как RestaurantSimulation.stop
+        working.set(false);
+        for (Thread thread : threads) thread.interrupt();
+        for (Thread thread : threads) {
+            try { thread.join(1000); } catch (InterruptedException ignored) {}
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // размер процесса в памяти (только Linux), стеки потоков видны только тут
+    private static long residentKb() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // не Linux - просто не показываем
+        }
+        return -1;
+    }
+}
+
+// бенчмарки конвейера клиенты → официанты → кухня
+// как в JMH: прогрев, потом несколько замеров, печатаем среднее и разброс
+class PipelineBenchmark {
+    private static final int WARMUP_ITERATIONS = 1;
+    private static final int ITERATIONS = 3;
+    private static final int[] THREADS = {1, 4, 16};
+    private static final int[] BACKLOGS = {16, 1024};
+    // measure читает счетчики, пока потоки работают: быстрые циклы сбрасывают свой счет пачками
+    private static final int FLUSH_EVERY = 256;
+
+    // один замер: сколько операций в секунду
+    private interface Workload {
+        double run(int millis) throws InterruptedException;
+    }
+
+    public static void run(int iterationMillis) {
+        // печать событий испортит замеры
+        EventLog.Level oldLevel = EventLog.getLevel();
+        EventLog.setLevel(EventLog.Level.OFF);
+
+        System.out.println("\n" + "=".repeat(70));
+        System.out.println("БЕНЧМАРК КОНВЕЙЕРА ЗАКАЗОВ (замер " + iterationMillis + " мс, прогрев "
+                + WARMUP_ITERATIONS + ", замеров " + ITERATIONS + ")");
+        System.out.println("=".repeat(70));
+
+        try {
+            printHeader("Передача через очередь (производители = потребители)");
+            for (QueueType type : QueueType.values()) {
+                for (int threads : THREADS) {
+                    for (int backlog : BACKLOGS) {
+                        report(type.getTitle(), threads, backlog,
+                                millis -> handoff(type, threads, backlog, millis), iterationMillis);
+                    }
+                }
+            }
+
+            printHeader("Официанты: acceptOrderFromCustomer + deliverReadyOrders (потоки = официанты = повара)");
+            for (QueueType type : QueueType.values()) {
+                for (int threads : THREADS) {
+                    for (int backlog : BACKLOGS) {
+                        report(type.getTitle(), threads, backlog,
+                                millis -> waiterPipeline(type, threads, backlog, millis), iterationMillis);
+                    }
+                }
+            }
+
+            printHeader("Statistics: recordOrderCreated + recordOrderCompleted");
+            for (int threads : THREADS) {
+                report("Statistics", threads, 0, millis -> statistics(threads, millis), iterationMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            EventLog.setLevel(oldLevel);
+        }
+        System.out.println("=".repeat(70));
+    }
+
+    // сколько клиентов в секунду реально выдает CustomerGenerator (Пуассон, очередь не тормозит)
+    public static void arrivals(int ratePerSecond, int seconds) {
+        EventLog.Level oldLevel = EventLog.getLevel();
+        EventLog.setLevel(EventLog.Level.OFF);
+
+        BlockingQueue<Order> queue = new MpmcRingQueue<>(1 << 16);
+        Statistics stats = new Statistics();
+        CustomerGenerator generator = new CustomerGenerator(queue, stats, new OrderIdGenerator(),
+                new PoissonArrivals(new Random(), ratePerSecond));
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong maxLag = new AtomicLong();
+
+        // официанты без дела: просто забираем заказы пачками и смотрим, насколько они опоздали
+        Thread drain = new Thread(() -> {
+            List<Order> batch = new ArrayList<>(4096);
+            while (running.get()) {
+                batch.clear();
+                if (queue.drainTo(batch, 4096) == 0) {
+                    Thread.yield();
+                    continue;
+                }
+                long now = System.nanoTime();
+                maxLag.accumulateAndGet(now - batch.get(0).getCreatedAt(), Math::max);
+            }
+        });
+        Thread thread = new Thread(generator);
+
+        drain.start();
+        long start = System.nanoTime();
+        thread.start();
+        try {
+            Thread.sleep(seconds * 1000L);
+            generator.stop();
+            thread.interrupt();
+            thread.join();
+            running.set(false);
+            drain.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            EventLog.setLevel(oldLevel);
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("ГЕНЕРАТОР КЛИЕНТОВ (Пуассон)");
+        System.out.println("=".repeat(50));
+        System.out.printf("Заданная интенсивность: %d клиентов/сек\n", ratePerSecond);
+        System.out.printf("Получено: %.0f клиентов/сек (%d за %.1f сек)\n",
+                stats.getOrdersCreated() / elapsed, stats.getOrdersCreated(), elapsed);
+        System.out.printf("Макс. отставание от расписания: %.2f мс\n", maxLag.get() / 1e6);
+        System.out.println("=".repeat(50));
+    }
+
+    // байт на заказ в конвейере официант → повар → официант: обычные заказы против пула
+    public static void allocation(int millis) {
+        EventLog.Level oldLevel = EventLog.getLevel();
+        EventLog.setLevel(EventLog.Level.OFF);
+
+        System.out.println("\n" + "=".repeat(70));
+        System.out.println("ВЫДЕЛЕНИЕ ПАМЯТИ НА ЗАКАЗ (замер " + millis + " мс, 4 официанта, 4 повара)");
+        System.out.println("=".repeat(70));
+        System.out.printf("%-38s %-10s %12s %14s\n", "Очередь", "Заказы", "заказов/с", "байт на заказ");
+        try {
+            for (QueueType type : QueueType.values()) {
+                for (boolean pooled : new boolean[]{false, true}) {
+                    waiterPipeline(type, 4, 1024, millis / 2, pooled, null, null); // прогрев
+                    long[] window = new long[2]; // байт и заказов за время замера
+                    double rate = waiterPipeline(type, 4, 1024, millis, pooled, new AllocationCounter(), window);
+                    System.out.printf("%-38s %-10s %12.0f %14s\n", type.getTitle(), pooled ? "пул" : "новые", rate,
+                            window[0] < 0 || window[1] == 0 ? "-" : String.format("%.1f", (double) window[0] / window[1]));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            EventLog.setLevel(oldLevel);
+        }
+        System.out.println("=".repeat(70));
+    }
+
+    // потоки с очередями против конвейера на Flow: выполнено, задержки и сколько потоков понадобилось.
+    // нагрузка - 80% возможностей поваров (готовка в среднем 4 сек), поток Пуассона с одним зерном для обоих
+    public static void flow(int[] staffCounts, int seconds) {
+        EventLog.Level oldLevel = EventLog.getLevel();
+        EventLog.setLevel(EventLog.Level.OFF);
+
+        System.out.println("\n" + "=".repeat(86));
+        System.out.println("ПОТОКИ ПРОТИВ FLOW (" + seconds + " сек на замер, поваров = официантов, загрузка 80%)");
+        System.out.println("=".repeat(86));
+        System.out.printf("%-18s %9s %8s %10s %10s %13s %13s\n", "Конвейер", "Персонал", "Потоков",
+                "выполнено", "в минуту", "всего p50 мс", "кухня p50 мс");
+        try {
+            for (int staff : staffCounts) {
+                long seed = new Random().nextLong();
+                for (boolean flow : new boolean[]{false, true}) {
+                    flowRun(staff, seconds, seed, flow);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            EventLog.setLevel(oldLevel);
+        }
+        System.out.println("=".repeat(86));
+        System.out.println("кухня p50 - от официанта до начала готовки; потоков - сколько добавилось за замер (пик)");
+    }
+
+    private static final int FLOW_THREADS = 2;
+
+    private static void flowRun(int staff, int seconds, long seed, boolean flow) throws InterruptedException {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        // потоки прошлого замера могут еще доживать - ждем, пока их число перестанет падать
+        int baseline = threadBean.getThreadCount();
+        for (int i = 0; i < 20; i++) {
+            Thread.sleep(100);
+            int now = threadBean.getThreadCount();
+            if (now >= baseline) {
+                break;
+            }
+            baseline = now;
+        }
+        threadBean.resetPeakThreadCount();
+
+        Statistics stats = new Statistics();
+        ArrivalProcess arrivals = new PoissonArrivals(new Random(seed), staff * 0.2);
+        FlowSimulation flowSim = null;
+        RestaurantSimulation threadSim = null;
+        stats.start();
+        if (flow) {
+            flowSim = new FlowSimulation(stats, staff, staff, staff * 2, FLOW_THREADS);
+            flowSim.setArrivalProcess(arrivals);
+            flowSim.start();
+        } else {
+            threadSim = new RestaurantSimulation(stats, staff, staff, staff * 2);
+            threadSim.setArrivalProcess(arrivals);
+            threadSim.setOverloadPolicy(OverloadPolicy.REJECT, 0);
+            threadSim.start();
+        }
+        try {
+            Thread.sleep(seconds * 1000L);
+        } finally {
+            stats.stop();
+            int peak = threadBean.getPeakThreadCount();
+            if (flow) {
+                flowSim.stop();
+            } else {
+                threadSim.stop();
+            }
+            System.out.printf("%-18s %9d %8d %10d %10.1f %13.1f %13.1f\n", flow ? "Flow (" + FLOW_THREADS + " потока)"
+                    : "потоки", staff, peak - baseline, stats.getOrdersCompleted(),
+                    stats.getOrdersCompleted() * 60_000.0 / stats.getElapsedMillis(),
+                    stats.getEndToEnd().percentile(50) / 1000.0, stats.getKitchenWait().percentile(50) / 1000.0);
+        }
+    }
+
+    // общая очередь против очередей у каждого повара: заказы/сек и время ожидания на кухне
+    public static void kitchen(int[] chefCounts, int millis) {
+        EventLog.Level oldLevel = EventLog.getLevel();
+        EventLog.setLevel(EventLog.Level.OFF);
+
+        System.out.println("\n" + "=".repeat(70));
+        System.out.println("БЕНЧМАРК КУХНИ (замер " + millis + " мс, готовка ~" + BENCH_COOK_MICROS + " мкс)");
+        System.out.println("=".repeat(70));
+        System.out.printf("%-38s %6s %12s %9s %9s\n", "Кухня", "Повара", "заказов/с", "p50 мс", "p99 мс");
+        try {
+            for (int chefs : chefCounts) {
+                for (KitchenMode mode : KitchenMode.values()) {
+                    kitchenRun(mode, chefs, millis / 2, null); // прогрев
+                    LatencyHistogram wait = new LatencyHistogram();
+                    double rate = kitchenRun(mode, chefs, millis, wait);
+                    System.out.printf("%-38s %6d %12.0f %9.3f %9.3f\n", mode.getTitle(), chefs, rate,
+                            wait.percentile(50) / 1000.0, wait.percentile(99) / 1000.0);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            EventLog.setLevel(oldLevel);
+        }
+        System.out.println("=".repeat(70));
+    }
+
+    private static final int BENCH_COOK_MICROS = 200;
+
+    private static double kitchenRun(KitchenMode mode, int chefs, int millis, LatencyHistogram wait)
+            throws InterruptedException {
+        Kitchen kitchen = mode.create(QueueType.LINKED, chefs, chefs * 4);
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder cooked = new LongAdder();
+        List<Thread> workers = new ArrayList<>();
+
+        // официанты только сдают заказы на кухню
+        int feeders = Math.max(2, Math.min(8, chefs / 4));
+        for (int t = 0; t < feeders; t++) {
+            int first = t;
+            workers.add(new Thread(() -> {
+                try {
+                    for (int id = first; running.get(); id += feeders) {
+                        kitchen.put(new Order(id, 0, null));
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }));
+        }
+        for (int i = 0; i < chefs; i++) {
+            int index = i;
+            workers.add(new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        Order order = kitchen.take(index, 200, TimeUnit.MILLISECONDS);
+                        if (order == null) continue;
+                        if (wait != null) {
+                            wait.record((System.nanoTime() - order.getCreatedAt()) / 1000);
+                        }
+                        LockSupport.parkNanos(BENCH_COOK_MICROS * 1000L);
+                        // готовка и так сотни микросекунд - считаем каждый заказ сразу, measure читает счетчик на ходу
+                        cooked.increment();
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }));
+        }
+        return measure(workers, () -> running.set(false), cooked::sum, millis);
+    }
+
+    private static void printHeader(String title) {
+        System.out.println("\n" + title);
+        System.out.printf("%-38s %6s %7s %14s %12s\n", "Вариант", "Потоки", "Очередь", "опер/с", "разброс");
+    }
+
+    private static void report(String name, int threads, int backlog, Workload workload,
+                               int iterationMillis) throws InterruptedException {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            workload.run(iterationMillis);
+        }
+        double sum = 0;
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            double result = workload.run(iterationMillis);
+            sum += result;
+            min = Math.min(min, result);
+            max = Math.max(max, result);
+        }
+        System.out.printf("%-38s %6d %7s %14.0f %11.0f%%\n", name, threads,
+                backlog > 0 ? String.valueOf(backlog) : "-", sum / ITERATIONS,
+                sum > 0 ? (max - min) * 100 * ITERATIONS / sum : 0);
+    }
+
+    // чистая передача заказа через очередь: одни кладут, другие забирают
+    private static double handoff(QueueType type, int threads, int backlog, int millis)
+            throws InterruptedException {
+        BlockingQueue<Order> queue = type.create(backlog);
+        Order order = new Order(1, 0, null, 0);
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder taken = new LongAdder();
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        queue.offer(order, 1, TimeUnit.MILLISECONDS);
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }));
+            workers.add(new Thread(() -> {
+                long local = 0;
+                try {
+                    while (running.get()) {
+                        if (queue.poll(1, TimeUnit.MILLISECONDS) != null && ++local == FLUSH_EVERY) {
+                            taken.add(local);
+                            local = 0;
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                }
+                taken.add(local);
+            }));
+        }
+        return measure(workers, () -> running.set(false), taken::sum, millis);
+    }
+
+    // настоящие Waiter и Chef, только без пауз: повара готовят мгновенно
+    private static double waiterPipeline(QueueType type, int threads, int backlog, int millis)
+            throws InterruptedException {
+        return waiterPipeline(type, threads, backlog, millis, false, null, null);
+    }
+
+    // pooled - заказы из пула; allocations != null - в window пишем байты и заказы за время замера
+    private static double waiterPipeline(QueueType type, int threads, int backlog, int millis, boolean pooled,
+                                         AllocationCounter allocations, long[] window)
+            throws InterruptedException {
+        BlockingQueue<Order> customerQueue = type.create(backlog);
+        Kitchen kitchen = new SharedQueueKitchen(type.create(backlog));
+        OrderPool pool = pooled ? new OrderPool(backlog * 2 + threads * 2) : null;
+        OrderRegistry activeOrders = pooled ? new OrderRegistry(threads, pool.getCapacity()) : new OrderRegistry(threads);
+        Map<String, BlockingQueue<Order>> readyQueues = new ConcurrentHashMap<>();
+        Statistics stats = new Statistics();
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> workers = new ArrayList<>();
+        List<Chef> chefs = new ArrayList<>();
+
+        workers.add(new Thread(() -> {
+            int id = 1;
+            try {
+                while (running.get()) {
+                    // LinkedTransferQueue не ограничена - держим очередь клиентов в пределах backlog сами
+                    if (customerQueue.size() >= backlog) {
+                        Thread.yield();
+                        continue;
+                    }
+                    Order order = pool != null ? pool.acquire(id, 0) : new Order(id, 0, null);
+                    if (customerQueue.offer(order, 1, TimeUnit.MILLISECONDS)) {
+                        id++;
+                    } else if (pool != null) {
+                        pool.release(order);
+                    }
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }));
+        for (int i = 1; i <= threads; i++) {
+            String name = "Официант-" + i;
+            BlockingQueue<Order> readyOrders = pooled
+                    ? new ArrayBlockingQueue<>(backlog)
+                    : new LinkedBlockingQueue<>();
+            readyQueues.put(name, readyOrders);
+            Waiter waiter = new Waiter(name, customerQueue, kitchen, activeOrders, readyOrders, stats);
+            waiter.setOrderPool(pool);
+            workers.add(new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        waiter.acceptOrderFromCustomer();
+                        waiter.deliverReadyOrders();
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }));
+
+            Chef chef = new Chef("Повар-" + i, i - 1, kitchen, readyQueues, stats);
+            chefs.add(chef);
+            workers.add(new Thread(chef));
+        }
+
+        return measure(workers, () -> {
+            running.set(false);
+            for (Chef chef : chefs) chef.stop();
+        }, stats::getOrdersCompleted, millis, allocations, window);
+    }
+
+    private static double statistics(int threads, int millis) throws InterruptedException {
+        Statistics stats = new Statistics();
+        Order order = new Order(1, 0, null, 0);
+        order.markDelivered(TimeUnit.MILLISECONDS.toNanos(3));
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder ops = new LongAdder();
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                long local = 0;
+                while (running.get()) {
+                    stats.recordOrderCreated((int) (local & 15));
+                    stats.recordOrderCompleted(order);
+                    local += 2;
+                    if (local >= FLUSH_EVERY) {
+                        ops.add(local);
+                        local = 0;
+                    }
+                }
+                ops.add(local);
+            }));
+        }
+        return measure(workers, () -> running.set(false), ops::sum, millis);
+    }
+
+    // запускаем, через millis останавливаем и делим все сделанное на реальное время
+    private static double measure(List<Thread> workers, Runnable stop,
+                                  java.util.function.LongSupplier counter, int millis)
+            throws InterruptedException {
+        return measure(workers, stop, counter, millis, null, null);
+    }
+
+    // allocations != null - window[0] получит байты, выделенные за замер, window[1] - сделанное за то же время
+    private static double measure(List<Thread> workers, Runnable stop, java.util.function.LongSupplier counter,
+                                  int millis, AllocationCounter allocations, long[] window)
+            throws InterruptedException {
+        for (Thread thread : workers) thread.start();
+        long start = System.nanoTime();
+        long before = counter.getAsLong();
+        if (allocations != null) {
+            allocations.start();
+        }
+        Thread.sleep(millis);
+        // считаем до остановки, пока все потоки живы: то, что доделают после stop, в окно не входит
+        if (allocations != null) {
+            window[0] = allocations.stop();
+        }
+        long after = counter.getAsLong();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (allocations != null) {
+            window[1] = after - before;
+        }
+        stop.run();
+
+        // кто-то мог застрять в put - будим
+        for (Thread thread : workers) thread.interrupt();
+        for (Thread thread : workers) thread.join();
+        return (after - before) / seconds;
+    }
+}
+
+// фоновая запись глубины очередей и занятости персонала через равные промежутки
+// массивы растут кусками до CAPACITY точек, дальше старые точки затираются по кругу.
+// число занятых храним для всех, а кто именно занят - только для первых DETAIL_ACTORS (битами в long)
+class QueueSampler {
+    private static final int CAPACITY = 100_000;
+    private static final int INITIAL = 1024;
+    private static final int DETAIL_ACTORS = Long.SIZE;
+
+    private final int intervalMillis;
+    private final BlockingQueue<Order> customerQueue;
+    private final Kitchen kitchen;
+    private final OrderRegistry activeOrders;
+    private final List<Chef> chefs;
+    private final List<Waiter> waiters;
+
+    private long[] times = new long[INITIAL];
+    private int[] customerDepth = new int[INITIAL];
+    private int[] kitchenDepth = new int[INITIAL];
+    private int[] active = new int[INITIAL];
+    private int[] busyChefs = new int[INITIAL];
+    private int[] busyWaiters = new int[INITIAL];
+    private long[] chefBusy = new long[INITIAL];   // бит c - Повар c+1 занят
+    private long[] waiterBusy = new long[INITIAL]; // бит w - Официант w+1 занят
+    private long count; // сколько всего точек записали
+
+    private volatile boolean running = true;
+    private Thread thread;
+    private long startNanos;
+
+    public QueueSampler(int intervalMillis, BlockingQueue<Order> customerQueue,
+                        Kitchen kitchen, OrderRegistry activeOrders,
+                        List<Chef> chefs, List<Waiter> waiters) {
+        this.intervalMillis = intervalMillis;
+        this.customerQueue = customerQueue;
+        this.kitchen = kitchen;
+        this.activeOrders = activeOrders;
+        this.chefs = chefs;
+        this.waiters = waiters;
+    }
+
+    public void start() {
+        startNanos = System.nanoTime();
+        thread = new Thread(this::run, "QueueSampler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sample(); // последняя точка - состояние на момент остановки
+    }
+
+    private void run() {
+        long period = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        long next = startNanos;
+        while (running) {
+            sample();
+            // фиксированный шаг, а не sleep после работы - ряд не "уползает"
+            next += period;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    private synchronized void sample() {
+        if (count == times.length && times.length < CAPACITY) {
+            grow(Math.min(CAPACITY, times.length * 2));
+        }
+        int slot = (int) (count % times.length);
+        times[slot] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        customerDepth[slot] = customerQueue.size();
+        kitchenDepth[slot] = kitchen.size();
+        active[slot] = activeOrders.size();
+
+        int busy = 0;
+        long flags = 0;
+        int chefCount = chefs.size();
+        for (int c = 0; c < chefCount; c++) {
+            if (chefs.get(c).isBusy()) {
+                busy++;
+                if (c < DETAIL_ACTORS) flags |= 1L << c;
+            }
+        }
+        busyChefs[slot] = busy;
+        chefBusy[slot] = flags;
+
+        busy = 0;
+        flags = 0;
+        int waiterCount = waiters.size();
+        for (int w = 0; w < waiterCount; w++) {
+            if (waiters.get(w).isBusy()) {
+                busy++;
+                if (w < DETAIL_ACTORS) flags |= 1L << w;
+            }
+        }
+        busyWaiters[slot] = busy;
+        waiterBusy[slot] = flags;
+        count++;
+    }
+
+    private void grow(int length) {
+        times = Arrays.copyOf(times, length);
+        customerDepth = Arrays.copyOf(customerDepth, length);
+        kitchenDepth = Arrays.copyOf(kitchenDepth, length);
+        active = Arrays.copyOf(active, length);
+        busyChefs = Arrays.copyOf(busyChefs, length);
+        busyWaiters = Arrays.copyOf(busyWaiters, length);
+        chefBusy = Arrays.copyOf(chefBusy, length);
+        waiterBusy = Arrays.copyOf(waiterBusy, length);
+    }
+
+    public synchronized int size() {
+        return (int) Math.min(count, times.length);
+    }
+
+    // формат выбираем по расширению файла
+    public synchronized void export(String path) throws IOException {
+        try (Writer out = Files.newBufferedWriter(Paths.get(path))) {
+            if (path.toLowerCase().endsWith(".json")) {
+                writeJson(out);
+            } else {
+                writeCsv(out);
+            }
+        }
+    }
+
+    private void writeCsv(Writer out) throws IOException {
+        int chefColumns = Math.min(chefs.size(), DETAIL_ACTORS);
+        int waiterColumns = Math.min(waiters.size(), DETAIL_ACTORS);
+        out.write("time_ms,customer_queue,kitchen_queue,active_orders,busy_chefs,busy_waiters");
+        for (int c = 0; c < chefColumns; c++) out.write("," + chefs.get(c).getName());
+        for (int w = 0; w < waiterColumns; w++) out.write("," + waiters.get(w).getName());
+        out.write("\n");
+
+        long first = Math.max(0, count - times.length);
+        for (long i = first; i < count; i++) {
+            int slot = (int) (i % times.length);
+            StringBuilder line = new StringBuilder();
+            line.append(times[slot]).append(',').append(customerDepth[slot]).append(',')
+                    .append(kitchenDepth[slot]).append(',').append(active[slot]).append(',')
+                    .append(busyChefs[slot]).append(',').append(busyWaiters[slot]);
+            for (int c = 0; c < chefColumns; c++) {
+                line.append(',').append(chefBusy[slot] >>> c & 1);
+            }
+            for (int w = 0; w < waiterColumns; w++) {
+                line.append(',').append(waiterBusy[slot] >>> w & 1);
+            }
+            out.write(line.append('\n').toString());
+        }
+    }
+
+    private void writeJson(Writer out) throws IOException {
+        out.write("{\n  \"intervalMs\": " + intervalMillis + ",\n");
+        int chefColumns = Math.min(chefs.size(), DETAIL_ACTORS);
+        int waiterColumns = Math.min(waiters.size(), DETAIL_ACTORS);
+        List<String> chefNames = new ArrayList<>();
+        for (int c = 0; c < chefColumns; c++) chefNames.add(chefs.get(c).getName());
+        List<String> waiterNames = new ArrayList<>();
+        for (int w = 0; w < waiterColumns; w++) waiterNames.add(waiters.get(w).getName());
+        out.write("  \"chefs\": " + names(chefNames) + ",\n");
+        out.write("  \"waiters\": " + names(waiterNames) + ",\n");
+        out.write("  \"samples\": [\n");
+
+        long first = Math.max(0, count - times.length);
+        for (long i = first; i < count; i++) {
+            int slot = (int) (i % times.length);
+            StringBuilder line = new StringBuilder("    {");
+            line.append("\"timeMs\": ").append(times[slot])
+                    .append(", \"customerQueue\": ").append(customerDepth[slot])
+                    .append(", \"kitchenQueue\": ").append(kitchenDepth[slot])
+                    .append(", \"activeOrders\": ").append(active[slot])
+                    .append(", \"busyChefs\": ").append(busyChefs[slot])
+                    .append(", \"busyWaiters\": ").append(busyWaiters[slot])
+                    .append(", \"chefBusy\": ").append(flags(chefBusy[slot], chefColumns))
+                    .append(", \"waiterBusy\": ").append(flags(waiterBusy[slot], waiterColumns))
+                    .append(i + 1 < count ? "},\n" : "}\n");
+            out.write(line.toString());
+        }
+        out.write("  ]\n}\n");
+    }
+
+    private static String names(List<String> names) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0) json.append(", ");
+            json.append('"').append(names.get(i)).append('"');
+        }
+        return json.append(']').toString();
+    }
+
+    private static String flags(long busy, int actors) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < actors; i++) {
+            if (i > 0) json.append(", ");
+            json.append(busy >>> i & 1);
+        }
+        return json.append(']').toString();
+    }
+}
+
+// прогноз без симуляции: официанты и кухня - очереди M/G/c, ответ мгновенный.
+// сначала точно решаем M/M/c (или M/M/c/N, если лишних отклоняют), потом поправляем очередь на разброс
+// приходов и готовки (приближение Аллена-Каннина), поток на кухню - выход официантов по формуле Уитта
+class CapacityPlanner {
+    // официант занят заказом столько же, сколько в виртуальном времени, и это время почти не меняется
+    static final double WAITER_SECONDS = 0.1;
+    private static final int SAMPLES = 100_000;
+    private static final double SCALE = 1e250; // чтобы a^n/n! не переполнялось при сотнях поваров
+
+    // что известно о клиентах: интенсивность и разброс (квадрат коэффициента вариации, 1 - как у Пуассона)
+    static class Workload {
+        double ratePerSecond;
+        double gapScv;
+        double cookSeconds;
+        double cookScv;
+
+        // оцениваем по выборке из того же генератора, что и в симуляции (подходит для любой модели и записи)
+        static Workload measure(ArrivalProcess arrivals) {
+            double gapSum = 0, gapSquares = 0, cookSum = 0, cookSquares = 0;
+            int n = 0;
+            while (n < SAMPLES && arrivals.hasNext()) {
+                double gap = arrivals.nextGapNanos() / 1e9;
+                double cook = arrivals.nextCookTime();
+                gapSum += gap;
+                gapSquares += gap * gap;
+                cookSum += cook;
+                cookSquares += cook * cook;
+                n++;
+            }
+            Workload workload = new Workload();
+            if (n == 0 || gapSum == 0) {
+                return workload;
+            }
+            double gapMean = gapSum / n;
+            workload.ratePerSecond = 1 / gapMean;
+            workload.gapScv = Math.max(0, gapSquares / n - gapMean * gapMean) / (gapMean * gapMean);
+            workload.cookSeconds = cookSum / n;
+            workload.cookScv = Math.max(0, cookSquares / n - workload.cookSeconds * workload.cookSeconds)
+                    / (workload.cookSeconds * workload.cookSeconds);
+            return workload;
+        }
+
+        // нагрузка на поваров без учета отказов: 1 и больше - кухня не справится никогда
+        double offeredLoad(int chefs) {
+            return ratePerSecond * cookSeconds / chefs;
+        }
+    }
+
+    static class Stage {
+        String title;
+        int servers;
+        boolean stable = true;
+        double utilization;
+        double queueLength;  // ждут в среднем
+        double waitSeconds;  // ждут в среднем, сек
+        double blocking;     // доля пришедших, кто застал все места занятыми
+        double throughput;   // сколько проходит в секунду
+        double departureScv; // разброс потока на следующий этап
+    }
+
+    static class Plan {
+        Workload workload;
+        Stage waiters;
+        Stage kitchen;
+        int shards;
+        int[] shardChefs; // поваров на каждой кухне
+
+        double totalSeconds() {
+            return waiters.waitSeconds + kitchen.waitSeconds + workload.cookSeconds;
+        }
+
+        // доля клиентов, которых не обслужили (только при REJECT)
+        double lost() {
+            return 1 - (1 - waiters.blocking) * (1 - kitchen.blocking);
+        }
+    }
+
+    // lossy - при полных местах заказ отклоняют (REJECT), иначе он ждет сколько угодно
+    public static Plan plan(Workload workload, int chefs, int waiters, int queue, int shards, OverloadPolicy overload) {
+        boolean lossy = overload == OverloadPolicy.REJECT;
+        Plan plan = new Plan();
+        plan.workload = workload;
+        plan.waiters = stage("Официанты", workload.ratePerSecond, WAITER_SECONDS, workload.gapScv, 0,
+                waiters, queue * 2, lossy);
+
+        // несколько кухон: каждая получает свою долю заказов, а повара делятся как в симуляции -
+        // повар c работает на кухне c % K, так что 5 поваров на 2 кухни - это 3+2
+        plan.shards = Math.max(1, Math.min(shards, chefs));
+        plan.shardChefs = new int[plan.shards];
+        Stage[] parts = new Stage[plan.shards];
+        for (int shard = 0; shard < plan.shards; shard++) {
+            plan.shardChefs[shard] = chefs / plan.shards + (shard < chefs % plan.shards ? 1 : 0);
+            parts[shard] = stage("Кухня", plan.waiters.throughput / plan.shards, workload.cookSeconds,
+                    plan.waiters.departureScv, workload.cookScv, plan.shardChefs[shard], queue, lossy);
+        }
+        plan.kitchen = parts.length == 1 ? parts[0] : combine(parts, chefs);
+        return plan;
+    }
+
+    // кухни вместе: ожидание и разброс - в среднем по выполненным заказам, очередь и отказы - на одну кухню
+    private static Stage combine(Stage[] parts, int chefs) {
+        Stage total = new Stage();
+        total.title = parts[0].title;
+        total.servers = chefs;
+        double busy = 0;
+        double waited = 0;
+        double scv = 0;
+        for (Stage part : parts) {
+            total.stable &= part.stable;
+            total.throughput += part.throughput;
+            total.queueLength += part.queueLength / parts.length;
+            total.blocking += part.blocking / parts.length;
+            busy += part.utilization * part.servers;
+            waited += part.waitSeconds * part.throughput;
+            scv += part.departureScv * part.throughput;
+        }
+        total.utilization = busy / chefs;
+        total.waitSeconds = total.stable ? waited / total.throughput : Double.POSITIVE_INFINITY;
+        total.departureScv = total.throughput > 0 ? scv / total.throughput : 0;
+        return total;
+    }
+
+    // "3+2" для неровного деления, "2x3" - для ровного
+    private static String seats(Plan plan, Stage stage) {
+        if (stage != plan.kitchen || plan.shards == 1) {
+            return String.valueOf(stage.servers);
+        }
+        if (plan.shardChefs[0] == plan.shardChefs[plan.shards - 1]) {
+            return plan.shardChefs[0] + "x" + plan.shards;
+        }
+        StringBuilder result = new StringBuilder();
+        for (int shard = 0; shard < plan.shards; shard++) {
+            result.append(shard > 0 ? "+" : "").append(plan.shardChefs[shard]);
+        }
+        return result.toString();
+    }
+
+    static Stage stage(String title, double lambda, double serviceSeconds, double arrivalScv, double serviceScv,
+                       int servers, int waitingPlaces, boolean lossy) {
+        Stage stage = new Stage();
+        stage.title = title;
+        stage.servers = servers;
+        double a = lambda * serviceSeconds;
+        double rho = a / servers;
+        if (lambda <= 0) {
+            return stage;
+        }
+
+        // t[n] ~ вероятность n заказов на этапе (без нормировки, с одинаковым множителем)
+        int last = lossy ? servers + waitingPlaces : servers;
+        double[] t = new double[last + 1];
+        t[0] = 1;
+        for (int n = 1; n <= last; n++) {
+            t[n] = t[n - 1] * a / Math.min(n, servers);
+            if (t[n] > SCALE) {
+                for (int k = 0; k <= n; k++) t[k] /= SCALE;
+            }
+        }
+
+        double queueLength;
+        if (lossy) {
+            // M/M/c/N: конечная сумма
+            double total = 0;
+            for (double value : t) total += value;
+            stage.blocking = t[last] / total;
+            queueLength = 0;
+            for (int n = servers + 1; n <= last; n++) queueLength += (n - servers) * t[n] / total;
+        } else if (rho >= 1) {
+            // ждать можно сколько угодно, но очередь растет без конца
+            stage.stable = false;
+            stage.utilization = rho;
+            stage.queueLength = Double.POSITIVE_INFINITY;
+            stage.waitSeconds = Double.POSITIVE_INFINITY;
+            stage.blocking = 1;
+            stage.throughput = servers / serviceSeconds;
+            stage.departureScv = serviceScv;
+            return stage;
+        } else {
+            // M/M/c, формула Эрланга C; "нет места" - застал занятыми все места, которые были бы при REJECT
+            double total = 0;
+            for (int n = 0; n < servers; n++) total += t[n];
+            double tail = t[servers] / (1 - rho);
+            double erlangC = tail / (total + tail);
+            queueLength = erlangC * rho / (1 - rho);
+            stage.blocking = erlangC * Math.pow(rho, waitingPlaces);
+        }
+
+        stage.throughput = lambda * (1 - (lossy ? stage.blocking : 0));
+        stage.utilization = stage.throughput * serviceSeconds / servers;
+        // M/G/c: очередь растет пропорционально разбросу приходов и обслуживания,
+        // а для приходов ровнее пуассоновских Аллен-Каннин сильно завышает - поправка Крамера-Лангенбаха-Бельца
+        double variability = (arrivalScv + serviceScv) / 2;
+        if (arrivalScv < 1 && variability > 0 && stage.utilization > 0) {
+            variability *= Math.exp(-2 * (1 - stage.utilization) * (1 - arrivalScv) * (1 - arrivalScv)
+                    / (3 * stage.utilization * (arrivalScv + serviceScv)));
+        }
+        stage.queueLength = queueLength * variability;
+        stage.waitSeconds = stage.queueLength / stage.throughput;
+        double u = Math.min(1, stage.utilization);
+        stage.departureScv = 1 + (1 - u * u) * (arrivalScv - 1) + u * u * (serviceScv - 1) / Math.sqrt(servers);
+        return stage;
+    }
+
+    // наименьшее число поваров, при котором загрузка кухни не выше maxLoad
+    static int chefsFor(Workload workload, double maxLoad) {
+        return Math.max(1, (int) Math.ceil(workload.ratePerSecond * workload.cookSeconds / maxLoad - 1e-9));
+    }
+
+    public static void print(Plan plan, OverloadPolicy overload) {
+        Workload workload = plan.workload;
+        System.out.println("\nПРОГНОЗ (M/G/c, мгновенно):");
+        System.out.printf("  Клиенты: %.3f в сек (разброс %.2f), готовка в среднем %.2f сек (разброс %.2f)\n",
+                workload.ratePerSecond, workload.gapScv, workload.cookSeconds, workload.cookScv);
+        System.out.printf("  %-12s %5s %9s %9s %13s %10s\n", "Этап", "мест", "загрузка", "очередь",
+                "ожидание, мс", "нет места");
+        for (Stage stage : new Stage[]{plan.waiters, plan.kitchen}) {
+            System.out.printf("  %-12s %5s %8.1f%% %9s %13s %9.1f%%\n", stage.title,
+                    seats(plan, stage),
+                    stage.utilization * 100, stage.stable ? String.format("%.2f", stage.queueLength) : "∞",
+                    stage.stable ? String.format("%.1f", stage.waitSeconds * 1000) : "∞", stage.blocking * 100);
+        }
+        if (plan.waiters.stable && plan.kitchen.stable) {
+            System.out.printf("  Всего от клиента до клиента: ~%.0f мс\n", plan.totalSeconds() * 1000);
+        } else {
+            System.out.println("  Очередь растет без конца: нагрузка больше, чем может обслужить персонал");
+        }
+        if (overload == OverloadPolicy.REJECT) {
+            System.out.printf("  Отказано будет: %.1f%% клиентов\n", plan.lost() * 100);
+        } else if (overload != OverloadPolicy.BLOCK) {
+            System.out.println("  (уход клиентов и упрощенные блюда модель не учитывает)");
+        }
+        System.out.printf("  Поваров нужно: не меньше %d, для загрузки до 85%% - %d\n",
+                chefsFor(workload, 1), chefsFor(workload, 0.85));
+    }
+
+    // прогноз и сверка с симуляцией в виртуальном времени (те же настройки, те же клиенты)
+    public static void run(int chefs, int waiters, int queue, int shards, RoutingPolicy routing,
+                           OverloadPolicy overload, int maxWaitMillis, KitchenDiscipline discipline,
+                           ArrivalProcess sample, ArrivalProcess arrivals, int hours) {
+        Workload workload = Workload.measure(sample);
+        if (workload.ratePerSecond <= 0) {
+            System.out.println("Не удалось оценить поток клиентов");
+            return;
+        }
+        Plan plan = plan(workload, chefs, waiters, queue, shards, overload);
+        print(plan, overload);
+
+        Statistics stats = new Statistics();
+        VirtualTimeSimulation sim = new VirtualTimeSimulation(stats, chefs, waiters, queue);
+        sim.setArrivalProcess(arrivals);
+        sim.setKitchenDiscipline(discipline);
+        sim.setOverloadPolicy(overload, maxWaitMillis);
+        sim.setSharding(shards, routing);
+        long durationMillis = hours * 3600_000L;
+        sim.run(durationMillis);
+
+        System.out.println("\nСВЕРКА С СИМУЛЯЦИЕЙ (" + hours + " ч. виртуального времени):");
+        System.out.printf("  %-26s %10s %10s %11s\n", "Показатель", "прогноз", "симуляция", "отклонение");
+        compare("Загрузка официантов, %", plan.waiters.utilization * 100,
+                100.0 * sim.getWaiterBusyMillis() / ((double) waiters * durationMillis));
+        compare("Загрузка поваров, %", plan.kitchen.utilization * 100,
+                100.0 * sim.getChefBusyMillis() / ((double) chefs * durationMillis));
+        compare("Ожидание официанта, мс", plan.waiters.waitSeconds * 1000, stats.getWaiterWait().getMean() / 1000);
+        compare("Очередь кухни, мс", plan.kitchen.waitSeconds * 1000, stats.getKitchenWait().getMean() / 1000);
+        compare("Всего, мс", plan.totalSeconds() * 1000, stats.getEndToEnd().getMean() / 1000);
+        if (overload == OverloadPolicy.REJECT && stats.getOrdersCreated() > 0) {
+            compare("Отказано, %", plan.lost() * 100, 100.0 * stats.getOrdersRejected() / stats.getOrdersCreated());
+        }
+        System.out.printf("  Выполнено в минуту: прогноз %.1f, симуляция %.1f\n", plan.kitchen.throughput * 60,
+                stats.getOrdersCompleted() * 60_000.0 / durationMillis);
+    }
+
+    private static void compare(String title, double predicted, double simulated) {
+        String deviation = Double.isInfinite(predicted) ? "-"
+                : Math.abs(simulated) < 1e-9 ? (Math.abs(predicted) < 1e-9 ? "0%" : "-")
+                : String.format("%+.0f%%", (predicted - simulated) / simulated * 100);
+        System.out.printf("  %-26s %10s %10.1f %11s\n", title,
+                Double.isInfinite(predicted) ? "∞" : String.format("%.1f", predicted), simulated, deviation);
+    }
+}
+
+// перебор параметров без меню: сетка поваров/официантов/очереди, прогоны идут параллельно,
+// у каждого прогона свои очереди, статистика и генератор ID; результат - одна таблица CSV
+class ParameterSweep {
+    private static class Result {
+        int chefs;
+        int waiters;
+        int queue;
+        KitchenDiscipline discipline;
+        int shards;
+        RoutingPolicy routing;
+        int created;
+        int completed;
+        long rejected;
+        long timedOut;
+        long elapsedMillis;
+        long p50;
+        long p90;
+        long p99;
+        long max;
+
+        double throughputPerMinute() {
+            return elapsedMillis > 0 ? completed * 60_000.0 / elapsedMillis : 0;
+        }
+    }
+
+    private static final Set<String> OPTIONS = new HashSet<>(Arrays.asList("chefs", "waiters", "queue", "duration",
+            "engine", "rate", "trace", "discipline", "overload", "max-wait", "shards", "routing", "parallel", "seed",
+            "target-p99", "max-load", "out"));
+
+    static void printUsage() {
+        System.out.println("  sweep --chefs 1:6 --waiters 1:6 --queue 5:20:5 [--duration сек]"
+                + " [--engine threads|virtual] [--rate клиентов/сек | --trace файл]"
+                + " [--discipline fifo,sjf,edf,aging|all] [--overload block|reject|timeout|degrade]"
+                + " [--max-wait мс] [--shards 1:3] [--routing rr,jsq,p2c,affinity|all]"
+                + " [--parallel N] [--seed N] [--target-p99 мс] [--max-load 0.95] [--out файл.csv]");
+    }
+
+    // каждый флаг - "--имя значение"; неизвестный флаг или флаг без значения - ошибка, а не тихий пропуск
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || !OPTIONS.contains(args[i].substring(2))) {
+                throw new IllegalArgumentException("Неизвестный параметр: " + args[i]);
+            }
+            if (i + 1 == args.length || args[i + 1].startsWith("--")) {
+                throw new IllegalArgumentException("Нет значения у " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    public static void run(String[] args) {
+        Map<String, String> options;
+        int[] chefs;
+        int[] waiters;
+        int[] queues;
+        boolean virtual;
+        int duration;
+        int parallel;
+        long seed;
+        double targetP99;
+        KitchenDiscipline[] disciplines;
+        OverloadPolicy overload;
+        int maxWait;
+        int[] shardCounts;
+        RoutingPolicy[] routings;
+        double maxLoad;
+        try {
+            options = parseOptions(args);
+            chefs = parseRange(options.getOrDefault("chefs", "1:6"));
+            waiters = parseRange(options.getOrDefault("waiters", "1:6"));
+            queues = parseRange(options.getOrDefault("queue", "10"));
+            virtual = parseEngine(options.getOrDefault("engine", "threads"));
+            duration = positive("duration", options.getOrDefault("duration", virtual ? "28800" : "30"));
+            parallel = positive("parallel", options.getOrDefault("parallel",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            seed = parseNumber("seed", options.getOrDefault("seed", "42"));
+            targetP99 = parseDouble("target-p99", options.getOrDefault("target-p99", "0"));
+            disciplines = parseDisciplines(options.getOrDefault("discipline", "fifo"));
+            overload = parseOverload(options.getOrDefault("overload", "block"));
+            maxWait = positive("max-wait", options.getOrDefault("max-wait", "30000"));
+            shardCounts = parseRange(options.getOrDefault("shards", "1"));
+            routings = parseRoutings(options.getOrDefault("routing", "rr"));
+            // отсеиваем заранее: персонал, которому прогноз дает загрузку выше max-load, не запускаем
+            maxLoad = parseDouble("max-load", options.getOrDefault("max-load", "0"));
+            if (options.containsKey("rate") && parseDouble("rate", options.get("rate")) == 0) {
+                throw new IllegalArgumentException("--rate должно быть больше нуля");
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            printUsage();
+            return;
+        }
+        String out = options.getOrDefault("out", "sweep.csv");
+        CapacityPlanner.Workload workload = null;
+        if (maxLoad > 0) {
+            try {
+                workload = CapacityPlanner.Workload.measure(createArrivals(options, new Random(seed)));
+            } catch (IOException e) {
+                System.out.println("Не удалось оценить поток клиентов, отсева не будет: " + e.getMessage());
+            }
+        }
+
+        // последний элемент - номер потока клиентов: все варианты кухни
+        // для одного и того же персонала получают одних и тех же клиентов
+        List<int[]> grid = new ArrayList<>();
+        int staffing = 0;
+        int pruned = 0;
+        for (int c : chefs) {
+            for (int w : waiters) {
+                for (int q : queues) {
+                    if (workload != null && tooLoaded(workload, c, w, q, overload, maxLoad)) {
+                        pruned++;
+                        staffing++; // номер потока клиентов тот же, что и без отсева
+                        continue;
+                    }
+                    for (KitchenDiscipline d : disciplines) {
+                        for (int k : shardCounts) {
+                            if (k > c) continue;
+                            // при одной кухне маршрутизация ни на что не влияет
+                            for (RoutingPolicy r : k == 1 ? new RoutingPolicy[]{routings[0]} : routings) {
+                                grid.add(new int[]{c, w, q, d.ordinal(), k, r.ordinal(), staffing});
+                            }
+                        }
+                    }
+                    staffing++;
+                }
+            }
+        }
+
+        System.out.println("Перебор: " + grid.size() + " конфигураций, " + (virtual ? "виртуальное время, " : "")
+                + duration + " сек каждая, параллельно " + parallel);
+        if (pruned > 0) {
+            System.out.printf("  по прогнозу отсеяно наборов персонала: %d (загрузка выше %.0f%%)\n",
+                    pruned, maxLoad * 100);
+        }
+
+        // печать событий из десятков симуляций сразу никому не нужна
+        EventLog.Level oldLevel = EventLog.getLevel();
+        EventLog.setLevel(EventLog.Level.OFF);
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallel);
+        List<Future<Result>> futures = new ArrayList<>();
+        AtomicInteger done = new AtomicInteger();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < grid.size(); i++) {
+            int[] config = grid.get(i);
+            long runSeed = seed + config[6];
+            futures.add(pool.submit(() -> {
+                Result result = runOne(config[0], config[1], config[2],
+                        KitchenDiscipline.values()[config[3]], config[4], RoutingPolicy.values()[config[5]],
+                        overload, maxWait, duration, virtual, createArrivals(options, new Random(runSeed)));
+                System.out.printf("  [%d/%d] повара %d, официанты %d, очередь %d, %s, кухонь %d%s: "
+                                + "%.1f заказов/мин, p99 %.0f мс\n",
+                        done.incrementAndGet(), grid.size(), result.chefs, result.waiters, result.queue,
+                        result.discipline.getTitle(), result.shards,
+                        result.shards > 1 ? " (" + result.routing.getTitle() + ")" : "",
+                        result.throughputPerMinute(), result.p99 / 1000.0);
+                return result;
+            }));
+        }
+
+        // упавший прогон пропускаем, остальные все равно попадут в CSV
+        List<Result> results = new ArrayList<>();
+        try {
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    System.out.println("Прогон завершился с ошибкой: " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+            EventLog.setLevel(oldLevel);
+        }
+
+        try {
+            writeCsv(out, results, virtual);
+            System.out.printf("Готово за %.1f сек, результаты: %s\n", (System.nanoTime() - start) / 1e9, out);
+        } catch (IOException e) {
+            System.out.println("Не удалось записать " + out + ": " + e.getMessage());
+        }
+
+        if (targetP99 > 0) {
+            printCheapest(results, targetP99);
+        }
+    }
+
+    // без учета отказов: иначе при REJECT загрузка всегда ниже 100% за счет потерянных клиентов
+    private static boolean tooLoaded(CapacityPlanner.Workload workload, int chefs, int waiters, int queue,
+                                     OverloadPolicy overload, double maxLoad) {
+        CapacityPlanner.Plan plan = CapacityPlanner.plan(workload, chefs, waiters, queue, 1, overload);
+        return workload.offeredLoad(chefs) > maxLoad
+                || workload.ratePerSecond * CapacityPlanner.WAITER_SECONDS / waiters > maxLoad
+                || plan.waiters.utilization > maxLoad || plan.kitchen.utilization > maxLoad;
+    }
+
+    private static Result runOne(int chefs, int waiters, int queue, KitchenDiscipline discipline,
+                                 int shards, RoutingPolicy routing, OverloadPolicy overload, int maxWait,
+                                 int duration, boolean virtual, ArrivalProcess arrivals) throws InterruptedException {
+        Statistics stats = new Statistics();
+        if (virtual) {
+            VirtualTimeSimulation sim = new VirtualTimeSimulation(stats, chefs, waiters, queue);
+            sim.setArrivalProcess(arrivals);
+            sim.setKitchenDiscipline(discipline);
+            sim.setOverloadPolicy(overload, maxWait);
+            sim.setSharding(shards, routing);
+            sim.run(duration * 1000L);
+        } else {
+            RestaurantSimulation sim = new RestaurantSimulation(stats, chefs, waiters, queue);
+            sim.setArrivalProcess(arrivals);
+            sim.setKitchenDiscipline(discipline);
+            sim.setOverloadPolicy(overload, maxWait);
+            sim.setSharding(shards, routing);
+            stats.start();
+            sim.start();
+            try {
+                Thread.sleep(duration * 1000L);
+            } finally {
+                sim.stop();
+                stats.stop();
+            }
+        }
+
+        Result result = new Result();
+        result.chefs = chefs;
+        result.waiters = waiters;
+        result.queue = queue;
+        result.discipline = discipline;
+        result.shards = shards;
+        result.routing = routing;
+        result.created = stats.getOrdersCreated();
+        result.completed = stats.getOrdersCompleted();
+        result.rejected = stats.getOrdersRejected();
+        result.timedOut = stats.getOrdersTimedOut();
+        result.elapsedMillis = stats.getElapsedMillis();
+        LatencyHistogram latency = stats.getEndToEnd();
+        result.p50 = latency.percentile(50);
+        result.p90 = latency.percentile(90);
+        result.p99 = latency.percentile(99);
+        result.max = latency.getMax();
+        return result;
+    }
+
+    private static ArrivalProcess createArrivals(Map<String, String> options, Random random)
+            throws IOException {
+        if (options.containsKey("trace")) {
+            return new TraceArrivals(options.get("trace"));
+        }
+        if (options.containsKey("rate")) {
+            return new PoissonArrivals(random, Double.parseDouble(options.get("rate")));
+        }
+        return new UniformArrivals(random, 1000, 3000);
+    }
+
+    private static boolean parseEngine(String text) {
+        switch (text) {
+            case "threads": return false;
+            case "virtual": return true;
+            default: throw new IllegalArgumentException("Неизвестный движок: " + text);
+        }
+    }
+
+    private static OverloadPolicy parseOverload(String text) {
+        switch (text) {
+            case "block": return OverloadPolicy.BLOCK;
+            case "reject": return OverloadPolicy.REJECT;
+            case "timeout": return OverloadPolicy.TIMEOUT;
+            case "degrade": return OverloadPolicy.DEGRADE;
+            default: throw new IllegalArgumentException("Неизвестная политика перегрузки: " + text);
+        }
+    }
+
+    private static int positive(String name, String text) {
+        long value = parseNumber(name, text);
+        if (value < 1 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("--" + name + " должно быть от 1 до " + Integer.MAX_VALUE + ": " + text);
+        }
+        return (int) value;
+    }
+
+    private static long parseNumber(String name, String text) {
+        try {
+            return Long.parseLong(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + name + " - не целое число: " + text);
+        }
+    }
+
+    private static double parseDouble(String name, String text) {
+        try {
+            double value = Double.parseDouble(text.trim());
+            if (value < 0 || Double.isNaN(value) || Double.isInfinite(value)) {
+                throw new IllegalArgumentException("--" + name + " не может быть отрицательным: " + text);
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + name + " - не число: " + text);
+        }
+    }
+
+    // "fifo,sjf,edf,aging" или "all"
+    private static KitchenDiscipline[] parseDisciplines(String text) {
+        if (text.equals("all")) {
+            return KitchenDiscipline.values();
+        }
+        List<KitchenDiscipline> result = new ArrayList<>();
+        for (String name : text.split(",")) {
+            switch (name.trim()) {
+                case "fifo": result.add(KitchenDiscipline.FIFO); break;
+                case "sjf": result.add(KitchenDiscipline.SHORTEST_FIRST); break;
+                case "edf": result.add(KitchenDiscipline.EARLIEST_DEADLINE); break;
+                case "aging": result.add(KitchenDiscipline.AGING); break;
+                default: throw new IllegalArgumentException("Неизвестный порядок на кухне: " + name);
+            }
+        }
+        return result.toArray(new KitchenDiscipline[0]);
+    }
+
+    // "rr,jsq,p2c,affinity" или "all"
+    private static RoutingPolicy[] parseRoutings(String text) {
+        if (text.equals("all")) {
+            return RoutingPolicy.values();
+        }
+        List<RoutingPolicy> result = new ArrayList<>();
+        for (String name : text.split(",")) {
+            switch (name.trim()) {
+                case "rr": result.add(RoutingPolicy.ROUND_ROBIN); break;
+                case "jsq": result.add(RoutingPolicy.SHORTEST_QUEUE); break;
+                case "p2c": result.add(RoutingPolicy.TWO_CHOICES); break;
+                case "affinity": result.add(RoutingPolicy.WAITER_AFFINITY); break;
+                default: throw new IllegalArgumentException("Неизвестная маршрутизация: " + name);
+            }
+        }
+        return result.toArray(new RoutingPolicy[0]);
+    }
+
+    // "3" или "1:6" или "5:20:5" или "2,4,8"; все значения от 1
+    static int[] parseRange(String text) {
+        if (text.contains(",")) {
+            String[] items = text.split(",");
+            int[] values = new int[items.length];
+            for (int i = 0; i < items.length; i++) values[i] = rangeValue(items[i], text);
+            return values;
+        }
+        String[] parts = text.split(":");
+        if (parts.length > 3) {
+            throw new IllegalArgumentException("Диапазон - от:до[:шаг]: " + text);
+        }
+        int from = rangeValue(parts[0], text);
+        int to = parts.length > 1 ? rangeValue(parts[1], text) : from;
+        int step = parts.length > 2 ? rangeValue(parts[2], text) : 1;
+        if (from > to) {
+            throw new IllegalArgumentException("Пустой диапазон: " + text);
+        }
+        List<Integer> values = new ArrayList<>();
+        for (long v = from; v <= to; v += step) {
+            values.add((int) v);
+        }
+        return values.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int rangeValue(String part, String text) {
+        try {
+            int value = Integer.parseInt(part.trim());
+            if (value >= 1) {
+                return value;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("В диапазоне нужны целые числа от 1: " + text);
+    }
+
+    private static void writeCsv(String path, List<Result> results, boolean virtual) throws IOException {
+        try (Writer out = Files.newBufferedWriter(Paths.get(path))) {
+            out.write("chefs,waiters,queue,discipline,shards,routing,engine,elapsed_s,created,completed,rejected,"
+                    + "timed_out,throughput_per_min,p50_ms,p90_ms,p99_ms,max_ms\n");
+            for (Result r : results) {
+                out.write(String.format(Locale.ROOT, "%d,%d,%d,%s,%d,%s,%s,%.1f,%d,%d,%d,%d,%.2f,%.1f,%.1f,%.1f,%.1f\n",
+                        r.chefs, r.waiters, r.queue, r.discipline, r.shards, r.routing,
+                        virtual ? "virtual" : "threads", r.elapsedMillis / 1000.0,
+                        r.created, r.completed, r.rejected, r.timedOut, r.throughputPerMinute(),
+                        r.p50 / 1000.0, r.p90 / 1000.0, r.p99 / 1000.0, r.max / 1000.0));
+            }
+        }
+    }
+
+    // самая дешевая конфигурация: p99 укладывается в цель и почти все заказы выполнены
+    private static void printCheapest(List<Result> results, double targetP99) {
+        Result best = null;
+        for (Result r : results) {
+            boolean meets = r.created > 0 && r.p99 / 1000.0 <= targetP99 && r.completed >= r.created * 0.95;
+            if (meets && (best == null || r.chefs + r.waiters < best.chefs + best.waiters
+                    || (r.chefs + r.waiters == best.chefs + best.waiters && r.queue < best.queue))) {
+                best = r;
+            }
+        }
+        if (best == null) {
+            System.out.printf("Ни одна конфигурация не уложилась в p99 <= %.0f мс\n", targetP99);
+        } else {
+            System.out.printf("Самый дешевый вариант с p99 <= %.0f мс: повара %d, официанты %d, очередь %d, %s"
+                    + " (p99 %.0f мс, %.1f заказов/мин)\n", targetP99, best.chefs, best.waiters, best.queue,
+                    best.discipline.getTitle(), best.p99 / 1000.0, best.throughputPerMinute());
+        }
+    }
+}
+
+// разбор двоичного журнала после запуска: та же итоговая статистика, что печатает симуляция
+// файл читается кусками, в памяти держим только заказы, которые еще не закончились
+class JournalAnalyzer {
+    public static void run(String path) {
+        Statistics stats = new Statistics();
+        Map<Integer, Order> inFlight = new HashMap<>();
+        Map<Integer, int[]> waiters = new TreeMap<>(); // номер → принял, доставил
+        Map<Integer, int[]> chefs = new TreeMap<>();   // номер → приготовил
+        long realStart = System.nanoTime();
+
+        try (BinaryJournal.Reader reader = new BinaryJournal.Reader(path)) {
+            stats.start(reader.startMillis);
+            long read = 0;
+            long lastTime = 0;
+            int waiting = 0; // клиенты в очереди к официантам
+            while (reader.next()) {
+                read++;
+                lastTime = Math.max(lastTime, reader.time);
+                Order order = inFlight.get(reader.orderId);
+                switch (reader.type) {
+                    case EventLog.ORDER_CREATED:
+                        order = new Order(reader.orderId, reader.arg, null, 0);
+                        order.markCreated(reader.time);
+                        inFlight.put(reader.orderId, order);
+                        stats.recordOrderCreated(waiting++);
+                        break;
+                    case EventLog.ORDER_ACCEPTED:
+                        if (order != null) order.markPickedUp(reader.time);
+                        waiters.computeIfAbsent(reader.actor, k -> new int[2])[0]++;
+                        waiting--;
+                        break;
+                    case EventLog.ORDER_DEGRADED:
+                        if (order != null) order.degrade(reader.arg);
+                        stats.recordOrderDegraded();
+                        break;
+                    case EventLog.COOK_STARTED:
+                        if (order != null) order.markKitchenStart(reader.time);
+                        break;
+                    case EventLog.COOK_DONE:
+                        if (order != null) order.markCooked(reader.time);
+                        chefs.computeIfAbsent(reader.actor, k -> new int[1])[0]++;
+                        break;
+                    case EventLog.ORDER_DELIVERED:
+                        inFlight.remove(reader.orderId);
+                        if (order != null) {
+                            order.markDelivered(reader.time);
+                            stats.recordOrderCompleted(order);
+                        }
+                        waiters.computeIfAbsent(reader.actor, k -> new int[2])[1]++;
+                        break;
+                    case EventLog.ORDER_LOST:
+                        inFlight.remove(reader.orderId);
+                        stats.recordOrderLost();
+                        break;
+                    case EventLog.ORDER_REJECTED:
+                    case EventLog.ORDER_TIMED_OUT:
+                        inFlight.remove(reader.orderId);
+                        if (reader.actor == 0) {
+                            waiting--; // не дошел до официанта
+                        }
+                        if (reader.type == EventLog.ORDER_REJECTED) {
+                            stats.recordOrderRejected();
+                        } else {
+                            stats.recordOrderTimedOut();
+                        }
+                        break;
+                }
+            }
+            stats.stop(reader.startMillis + TimeUnit.NANOSECONDS.toMillis(lastTime));
+
+            stats.printStats("Журнал " + path + " (зерно " + reader.seed + ")",
+                    reader.chefs, reader.waiters, reader.queue);
+            System.out.println("\nСТАТИСТИКА ПЕРСОНАЛА:");
+            for (Map.Entry<Integer, int[]> chef : chefs.entrySet()) {
+                System.out.println("  Повар-" + chef.getKey() + ": приготовил " + chef.getValue()[0]);
+            }
+            for (Map.Entry<Integer, int[]> waiter : waiters.entrySet()) {
+                System.out.println("  Официант-" + waiter.getKey() + ": принял " + waiter.getValue()[0]
+                        + ", доставил " + waiter.getValue()[1]);
+            }
+            System.out.println("\nНе закончено к концу журнала: " + inFlight.size());
+            double seconds = (System.nanoTime() - realStart) / 1e9;
+            System.out.printf("Прочитано записей: %d (%.1f МБ) за %.2f сек\n", read,
+                    read * BinaryJournal.RECORD / 1e6, seconds);
+            System.out.println("=".repeat(50));
+        } catch (IOException e) {
+            System.out.println("Не удалось прочитать журнал " + path + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,470 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// проверки без JUnit: каждая проверка - обычный метод, при ошибке выходим с кодом 1
+// javac -encoding UTF-8 RestaurantSystem.java RestaurantSystemTest.java && java RestaurantSystemTest
+public class RestaurantSystemTest {
+    private static int checks;
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        virtualTimeIsDeterministic();
+        ringQueueKeepsOrderAndBounds();
+        ringQueueHandsEachItemOnce();
+        histogramPercentiles();
+        histogramConcurrentRecords();
+        sweepParsesRanges();
+        sweepRejectsBadOptions();
+        sweepWritesOneRowPerConfiguration();
+        journalRoundTrip();
+        journalConcurrentWriters();
+        plannerMatchesQueueingFormulas();
+        plannerSplitsChefsBetweenShards();
+
+        System.out.printf("Проверок: %d, ошибок: %d\n", checks, failures);
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    // ==================== ВИРТУАЛЬНОЕ ВРЕМЯ ====================
+
+    // один и тот же seed - одна и та же смена, вплоть до последнего заказа
+    private static void virtualTimeIsDeterministic() {
+        String first = virtualShift(42);
+        String second = virtualShift(42);
+        String other = virtualShift(7);
+
+        check(first.contains("Заказов выполнено"), "виртуальная смена печатает статистику");
+        check(first.equals(second), "одинаковый seed дает одинаковую смену");
+        check(!first.equals(other), "другой seed дает другую смену");
+    }
+
+    private static String virtualShift(long seed) {
+        return captureOutput(() -> {
+            Statistics stats = new Statistics();
+            VirtualTimeSimulation sim = new VirtualTimeSimulation(stats, 2, 2, 5, seed);
+            sim.run(2 * 3600_000L);
+            stats.printStats("Виртуальное время", 2, 2, 5);
+            sim.printPersonnelStats();
+        });
+    }
+
+    // ==================== MPMC ОЧЕРЕДЬ ====================
+
+    private static void ringQueueKeepsOrderAndBounds() throws Exception {
+        MpmcRingQueue<Integer> queue = new MpmcRingQueue<>(4);
+        check(queue.poll() == null, "пустая очередь отдает null");
+        check(queue.poll(1, TimeUnit.MILLISECONDS) == null, "poll с таймаутом на пустой очереди отдает null");
+
+        // несколько кругов по кольцу, чтобы номера ячеек ушли дальше capacity
+        int next = 0;
+        int expected = 0;
+        boolean inOrder = true;
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 4; i++) {
+                check(queue.offer(next++), "в неполную очередь можно положить");
+            }
+            check(!queue.offer(next), "в полную очередь положить нельзя");
+            check(queue.size() == 4 && queue.remainingCapacity() == 0, "полная очередь знает свой размер");
+            check(queue.peek() == expected, "peek показывает голову");
+            for (int i = 0; i < 4; i++) {
+                inOrder &= queue.poll() == expected++;
+            }
+        }
+        check(inOrder, "очередь отдает элементы в порядке добавления");
+        check(queue.isEmpty(), "после разбора очередь пустая");
+
+        queue.offer(1);
+        queue.offer(2);
+        queue.offer(3);
+        List<Integer> drained = new ArrayList<>();
+        check(queue.drainTo(drained, 2) == 2 && drained.equals(List.of(1, 2)), "drainTo берет не больше лимита");
+        check(queue.drainTo(drained) == 1 && queue.isEmpty(), "drainTo забирает остаток");
+
+        boolean rejected = false;
+        try {
+            new MpmcRingQueue<Integer>(0);
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        check(rejected, "нулевая емкость запрещена");
+    }
+
+    // несколько писателей и читателей: каждый элемент доходит ровно один раз
+    private static void ringQueueHandsEachItemOnce() throws Exception {
+        int producers = 4;
+        int consumers = 4;
+        int perProducer = 50_000;
+        int total = producers * perProducer;
+        MpmcRingQueue<Integer> queue = new MpmcRingQueue<>(64);
+        AtomicIntegerArray seen = new AtomicIntegerArray(total);
+
+        ExecutorService pool = Executors.newFixedThreadPool(producers + consumers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int base = p * perProducer;
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    queue.put(base + i);
+                }
+                return null;
+            }));
+        }
+        for (int c = 0; c < consumers; c++) {
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < total / consumers; i++) {
+                    seen.incrementAndGet(queue.take());
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        boolean exactlyOnce = true;
+        for (int i = 0; i < total; i++) {
+            exactlyOnce &= seen.get(i) == 1;
+        }
+        check(exactlyOnce, "каждый элемент получен ровно один раз");
+        check(queue.isEmpty(), "после обмена очередь пустая");
+    }
+
+    // ==================== ГИСТОГРАММА ЗАДЕРЖЕК ====================
+
+    private static void histogramPercentiles() {
+        LatencyHistogram empty = new LatencyHistogram();
+        check(empty.percentile(50) == 0 && empty.getCount() == 0, "пустая гистограмма отдает 0");
+
+        // до 64 мкс корзины точные
+        LatencyHistogram small = new LatencyHistogram();
+        for (int i = 1; i <= 50; i++) {
+            small.record(i);
+        }
+        check(small.percentile(50) == 25, "p50 для 1..50 равен 25");
+        check(small.percentile(90) == 45, "p90 для 1..50 равен 45");
+        check(small.percentile(100) == 50 && small.getMax() == 50, "p100 равен максимуму");
+
+        // дальше - не хуже ~3% от точного значения
+        LatencyHistogram wide = new LatencyHistogram();
+        for (int i = 1; i <= 100_000; i++) {
+            wide.record(i);
+        }
+        check(wide.getCount() == 100_000, "счетчик записей");
+        check(near(wide.percentile(50), 50_000, 0.03), "p50 для 1..100000 около 50000");
+        check(near(wide.percentile(90), 90_000, 0.03), "p90 для 1..100000 около 90000");
+        check(near(wide.percentile(99.9), 99_900, 0.03), "p99.9 для 1..100000 около 99900");
+        check(wide.percentile(100) <= 100_000 && near(wide.percentile(100), 100_000, 0.03),
+                "p100 около максимума и не больше него");
+        check(wide.getMax() == 100_000, "максимум хранится точно");
+
+        // одно большое значение не тянет медиану
+        LatencyHistogram skewed = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            skewed.record(1_000);
+        }
+        skewed.record(10_000_000);
+        check(near(skewed.percentile(50), 1_000, 0.03), "медиана не зависит от выброса");
+        check(skewed.percentile(99) <= 1_031, "p99 еще в основной массе");
+        check(skewed.percentile(100) == 10_000_000, "выброс виден в максимуме");
+
+        LatencyHistogram negative = new LatencyHistogram();
+        negative.record(-5);
+        check(negative.percentile(50) == 0 && negative.getMax() == 0, "отрицательная задержка считается нулем");
+    }
+
+    private static void histogramConcurrentRecords() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        int threads = 4;
+        int perThread = 100_000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    histogram.record(i % 1000 + offset);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        check(histogram.getCount() == (long) threads * perThread, "параллельные записи не теряются");
+        check(histogram.getMax() == 999 + threads - 1, "максимум из всех потоков");
+    }
+
+    // ==================== ПЕРЕБОР ПАРАМЕТРОВ ====================
+
+    private static void sweepParsesRanges() {
+        check(Arrays.equals(ParameterSweep.parseRange("3"), new int[]{3}), "одно значение");
+        check(Arrays.equals(ParameterSweep.parseRange("1:4"), new int[]{1, 2, 3, 4}), "от:до");
+        check(Arrays.equals(ParameterSweep.parseRange("5:20:5"), new int[]{5, 10, 15, 20}), "от:до:шаг");
+        check(Arrays.equals(ParameterSweep.parseRange("5:19:5"), new int[]{5, 10, 15}), "шаг не выходит за верх");
+        check(Arrays.equals(ParameterSweep.parseRange(" 2, 4,8"), new int[]{2, 4, 8}), "список через запятую");
+        check(Arrays.equals(ParameterSweep.parseRange("2147483646:2147483647"),
+                new int[]{2147483646, 2147483647}), "верх диапазона без переполнения");
+
+        for (String bad : new String[]{"", "0", "-1", "0:3", "4:2", "1:5:0", "1:2:3:4", "a", "1:b", "2,,4", "1.5"}) {
+            check(rejects(() -> ParameterSweep.parseRange(bad)), "диапазон \"" + bad + "\" отклонен");
+        }
+    }
+
+    private static void sweepRejectsBadOptions() {
+        Map<String, String> options = ParameterSweep.parseOptions(new String[]{"--chefs", "1:3", "--engine", "virtual"});
+        check("1:3".equals(options.get("chefs")) && "virtual".equals(options.get("engine")), "флаги читаются парами");
+
+        check(rejects(() -> ParameterSweep.parseOptions(new String[]{"--cooks", "2"})), "неизвестный флаг отклонен");
+        check(rejects(() -> ParameterSweep.parseOptions(new String[]{"chefs", "2"})), "флаг без -- отклонен");
+        check(rejects(() -> ParameterSweep.parseOptions(new String[]{"--chefs"})), "флаг без значения отклонен");
+        check(rejects(() -> ParameterSweep.parseOptions(new String[]{"--chefs", "--waiters", "2"})),
+                "флаг вместо значения отклонен");
+    }
+
+    private static void sweepWritesOneRowPerConfiguration() throws Exception {
+        Path csv = Files.createTempFile("sweep", ".csv");
+        try {
+            captureOutput(() -> ParameterSweep.run(new String[]{"--chefs", "1:2", "--waiters", "1",
+                    "--queue", "5,10", "--engine", "virtual", "--duration", "3600", "--parallel", "2",
+                    "--out", csv.toString()}));
+            List<String> lines = Files.readAllLines(csv);
+            check(lines.size() == 5 && lines.get(0).startsWith("chefs,waiters,queue"),
+                    "заголовок и строка на каждую из 4 конфигураций");
+            check(lines.stream().skip(1).allMatch(line -> line.contains(",virtual,")), "в строках указан движок");
+
+            // неверный параметр - сообщение и справка, файл не трогаем
+            Files.delete(csv);
+            String output = captureOutput(() -> ParameterSweep.run(new String[]{"--chefs", "0:2",
+                    "--engine", "virtual", "--out", csv.toString()}));
+            check(output.contains("sweep --chefs") && !Files.exists(csv), "неверный диапазон - только справка");
+        } finally {
+            Files.deleteIfExists(csv);
+        }
+    }
+
+    // ==================== ДВОИЧНЫЙ ЖУРНАЛ ====================
+
+    // что записали, то и прочитали: заголовок, поля и интервалы между записями
+    private static void journalRoundTrip() throws Exception {
+        Path file = Files.createTempFile("journal", ".bin");
+        try {
+            check(BinaryJournal.close() == -1, "без открытого журнала close отдает -1");
+            BinaryJournal.record(1, System.nanoTime(), 1, 1, 1); // журнал не открыт - ничего не происходит
+
+            BinaryJournal.open(file.toString(), 1234, 3, 2, 10);
+            long base = System.nanoTime();
+            int count = 1000;
+            for (int i = 0; i < count; i++) {
+                BinaryJournal.record(i % 14, base + i * 1_000L, i + 1, i % 5, i * 7);
+            }
+            check(BinaryJournal.close() == count, "close отдает число записей");
+
+            try (BinaryJournal.Reader reader = new BinaryJournal.Reader(file.toString())) {
+                check(reader.seed == 1234 && reader.chefs == 3 && reader.waiters == 2 && reader.queue == 10,
+                        "заголовок журнала");
+                check(reader.records == count, "число записей в заголовке");
+
+                boolean same = true;
+                long firstTime = -1;
+                int read = 0;
+                while (reader.next()) {
+                    if (firstTime < 0) firstTime = reader.time;
+                    same &= reader.type == read % 14 && reader.orderId == read + 1
+                            && reader.actor == read % 5 && reader.arg == read * 7
+                            && reader.time - firstTime == read * 1_000L;
+                    read++;
+                }
+                check(read == count, "прочитаны все записи");
+                check(same, "поля записей совпадают с записанными");
+            }
+            check(Files.size(file) == BinaryJournal.HEADER + (long) count * BinaryJournal.RECORD,
+                    "пустой хвост файла обрезан");
+
+            check(BinaryJournal.actorNumber("Официант-3") == 3, "номер исполнителя из имени");
+            check(BinaryJournal.actorNumber("Клиент") == 0, "имя без номера - 0");
+
+            Files.write(file, new byte[BinaryJournal.HEADER]);
+            boolean rejected = false;
+            try (BinaryJournal.Reader ignored = new BinaryJournal.Reader(file.toString())) {
+                // не должны сюда попасть
+            } catch (IOException e) {
+                rejected = true;
+            }
+            check(rejected, "файл без сигнатуры не читается как журнал");
+        } finally {
+            BinaryJournal.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // записи из нескольких потоков не теряются и не затирают друг друга
+    private static void journalConcurrentWriters() throws Exception {
+        Path file = Files.createTempFile("journal", ".bin");
+        int threads = 4;
+        int perThread = 20_000;
+        try {
+            BinaryJournal.open(file.toString(), 1, 1, 1, 1);
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int actor = t + 1;
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        BinaryJournal.record(0, System.nanoTime(), i, actor, 0);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            pool.shutdown();
+            check(BinaryJournal.close() == (long) threads * perThread, "параллельные записи посчитаны");
+
+            AtomicIntegerArray seen = new AtomicIntegerArray(threads * perThread);
+            boolean valid = true;
+            try (BinaryJournal.Reader reader = new BinaryJournal.Reader(file.toString())) {
+                while (reader.next()) {
+                    valid &= reader.actor >= 1 && reader.actor <= threads && reader.orderId < perThread;
+                    if (valid) {
+                        seen.incrementAndGet((reader.actor - 1) * perThread + reader.orderId);
+                    }
+                }
+            }
+            boolean exactlyOnce = valid;
+            for (int i = 0; i < threads * perThread; i++) {
+                exactlyOnce &= seen.get(i) == 1;
+            }
+            check(exactlyOnce, "каждая запись каждого потока прочитана ровно один раз");
+        } finally {
+            BinaryJournal.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // ==================== ПЛАНИРОВЩИК МОЩНОСТИ ====================
+
+    // известные значения из теории очередей; разброс 1 и 1 - чистая M/M/c без поправок
+    private static void plannerMatchesQueueingFormulas() {
+        // M/M/1, rho = 0.5: Lq = rho^2 / (1 - rho) = 0.5, Wq = Lq / lambda = 1 сек
+        CapacityPlanner.Stage mm1 = mmc(0.5, 1.0, 1);
+        check(mm1.stable && approx(mm1.utilization, 0.5), "M/M/1: загрузка 0.5");
+        check(approx(mm1.queueLength, 0.5) && approx(mm1.waitSeconds, 1.0), "M/M/1: Lq 0.5, Wq 1 сек");
+        check(approx(mm1.throughput, 0.5) && approx(mm1.departureScv, 1.0), "M/M/1: выход - тот же пуассоновский поток");
+
+        // M/M/1, rho = 0.8: Wq = rho / (mu - lambda) = 4 сек
+        CapacityPlanner.Stage busy = mmc(0.8, 1.0, 1);
+        check(approx(busy.queueLength, 3.2) && approx(busy.waitSeconds, 4.0), "M/M/1 при 0.8: Lq 3.2, Wq 4 сек");
+
+        // M/M/2, a = 1: Эрланг C = 1/3, Lq = 1/3
+        CapacityPlanner.Stage mm2 = mmc(1.0, 1.0, 2);
+        check(approx(mm2.queueLength, 1.0 / 3) && approx(mm2.waitSeconds, 1.0 / 3), "M/M/2: Lq = Wq = 1/3");
+        check(approx(mm2.blocking, 1.0 / 3), "M/M/2 без лимита мест: ждет каждый третий");
+
+        // M/M/3, a = 2: Эрланг C = 4/9, Lq = 8/9
+        CapacityPlanner.Stage mm3 = mmc(2.0, 1.0, 3);
+        check(approx(mm3.utilization, 2.0 / 3) && approx(mm3.queueLength, 8.0 / 9), "M/M/3: Lq 8/9");
+        check(approx(mm3.waitSeconds, 4.0 / 9), "M/M/3: Wq 4/9 сек");
+
+        // M/D/1 по Поллачеку-Хинчину: очередь вдвое короче, чем у M/M/1
+        CapacityPlanner.Stage md1 = CapacityPlanner.stage("Кухня", 0.5, 1.0, 1, 0, 1, 0, false);
+        check(approx(md1.queueLength, 0.25) && approx(md1.waitSeconds, 0.5), "M/D/1: Lq 0.25, Wq 0.5 сек");
+
+        // M/M/2/2 - формула Эрланга B: 0.5 / 2.5 = 0.2
+        CapacityPlanner.Stage erlangB = CapacityPlanner.stage("Кухня", 1.0, 1.0, 1, 1, 2, 0, true);
+        check(approx(erlangB.blocking, 0.2) && approx(erlangB.throughput, 0.8), "Эрланг B: отказ 0.2");
+
+        // M/M/1/3, rho = 0.5: p = 8/15, 4/15, 2/15, 1/15
+        CapacityPlanner.Stage mm1k = CapacityPlanner.stage("Кухня", 0.5, 1.0, 1, 1, 1, 2, true);
+        check(approx(mm1k.blocking, 1.0 / 15), "M/M/1/3: отказ 1/15");
+        check(approx(mm1k.queueLength, 4.0 / 15), "M/M/1/3: Lq 4/15");
+        check(approx(mm1k.waitSeconds, (4.0 / 15) / (0.5 * 14 / 15)), "M/M/1/3: Wq по закону Литтла");
+
+        // перегрузка без отказов - очередь бесконечная
+        CapacityPlanner.Stage overloaded = mmc(2.0, 1.0, 2);
+        check(!overloaded.stable && Double.isInfinite(overloaded.waitSeconds), "rho = 1 - нестабильно");
+        check(approx(overloaded.throughput, 2.0), "при перегрузке проходит столько, сколько успевают");
+
+        // сотни поваров: a^n/n! не переполняется
+        CapacityPlanner.Stage large = mmc(180, 1.0, 200);
+        check(large.stable && Double.isFinite(large.queueLength) && large.queueLength >= 0
+                && large.queueLength < 10, "200 поваров при загрузке 0.9 считаются без переполнения");
+
+        CapacityPlanner.Stage idle = mmc(0, 1.0, 2);
+        check(idle.stable && idle.queueLength == 0 && idle.throughput == 0, "без клиентов этап пустой");
+    }
+
+    private static void plannerSplitsChefsBetweenShards() {
+        CapacityPlanner.Workload workload = new CapacityPlanner.Workload();
+        workload.ratePerSecond = 1;
+        workload.gapScv = 1;
+        workload.cookSeconds = 2;
+        workload.cookScv = 1;
+
+        CapacityPlanner.Plan plan = CapacityPlanner.plan(workload, 5, 2, 10, 2, OverloadPolicy.BLOCK);
+        check(plan.shards == 2 && Arrays.equals(plan.shardChefs, new int[]{3, 2}), "5 поваров на 2 кухни - 3+2");
+        check(approx(plan.kitchen.throughput, plan.waiters.throughput), "кухни вместе пропускают весь поток");
+        check(CapacityPlanner.chefsFor(workload, 1) == 2 && CapacityPlanner.chefsFor(workload, 0.85) == 3,
+                "поваров нужно: 2 минимум, 3 для загрузки до 85%");
+        check(approx(workload.offeredLoad(4), 0.5), "предлагаемая нагрузка на 4 поваров");
+    }
+
+    private static CapacityPlanner.Stage mmc(double lambda, double serviceSeconds, int servers) {
+        return CapacityPlanner.stage("Кухня", lambda, serviceSeconds, 1, 1, servers, 0, false);
+    }
+
+    // ==================== ВСПОМОГАТЕЛЬНОЕ ====================
+
+    private static boolean approx(double actual, double expected) {
+        return Math.abs(actual - expected) <= 1e-9 * Math.max(1, Math.abs(expected));
+    }
+
+    private static boolean rejects(Runnable action) {
+        try {
+            action.run();
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static boolean near(long actual, long expected, double tolerance) {
+        return Math.abs(actual - expected) <= expected * tolerance;
+    }
+
+    private static String captureOutput(Runnable action) {
+        PrintStream original = System.out;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(buffer, true, StandardCharsets.UTF_8));
+        try {
+            action.run();
+        } finally {
+            System.setOut(original);
+        }
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void check(boolean condition, String message) {
+        checks++;
+        if (!condition) {
+            failures++;
+            System.out.println("ОШИБКА: " + message);
+        }
+    }
+}